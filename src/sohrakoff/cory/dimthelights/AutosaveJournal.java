@@ -0,0 +1,291 @@
+package sohrakoff.cory.dimthelights;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class keeps the game being played on disk so it is not lost when the
+ * process is killed. A snapshot file holds the whole game and a journal file next
+ * to it gets a small record for every move made since, so a move only appends a
+ * few bytes. Every so often the game folds the records into a new snapshot and
+ * the journal starts again.
+ *
+ * The UI thread only hands records and snapshots over, the files are written on
+ * the journal's own thread. Snapshots are written to a temporary file and
+ * renamed, and each journal starts with the generation of the snapshot it follows,
+ * so a crash at any point leaves a snapshot and either its own records or none.
+ *
+ * Restoring maps each file and reads it, then the records are replayed on the
+ * snapshot by the game.
+ *
+ * @author cory
+ *
+ */
+public class AutosaveJournal implements Runnable {
+
+	// records other than a pressed cell (row*cols+col)
+	public static final int UNDO = -1;
+	public static final int REDO = -2;
+
+	private static final int SNAPSHOT_MAGIC = 0x44544c53; // "DTLS"
+	private static final int JOURNAL_MAGIC = 0x44544c4a; // "DTLJ"
+	private static final int FILE_VERSION = 3; // 2 added the solve time, 3 whether it was scored
+	private static final int HEADER_BYTES = 16; // magic, version, generation
+
+	// a record is the value and its complement, so a record cut short is seen
+	private static final int RECORD_BYTES = 8;
+
+	/**
+	 * @return The journal kept in a directory, one for the whole process so there
+	 * is only ever one thread writing the files.
+	 */
+	public static synchronized AutosaveJournal getJournal( File directory ) {
+		if ( journal == null || !journal.directory.equals(directory) )
+			journal = new AutosaveJournal(directory);
+		return journal;
+	}
+
+	private AutosaveJournal( File directory ) {
+		this.directory = directory;
+		snapshotFile = new File(directory, "autosave");
+		journalFile = new File(directory, "autosave.journal");
+		generation = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads the saved game, called before anything is written.
+	 *
+	 * @return The snapshot or null if there is no saved game.
+	 */
+	public GameSnapshot loadSnapshot() {
+		ByteBuffer map = map(snapshotFile);
+		if ( map == null || map.capacity() < HEADER_BYTES ||
+				map.getInt() != SNAPSHOT_MAGIC || map.getInt() != FILE_VERSION )
+			return null;
+		long snapshotGeneration = map.getLong();
+		GameSnapshot snapshot = GameSnapshot.read(map);
+		if ( snapshot != null ) {
+			loadedGeneration = snapshotGeneration;
+			generation = Math.max(generation, snapshotGeneration);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reads the records made after the snapshot returned by loadSnapshot().
+	 *
+	 * @return The records in the order they were made, pressed cells or UNDO and
+	 * REDO, empty if there are none.
+	 */
+	public int[] loadRecords() {
+		ByteBuffer map = map(journalFile);
+		if ( map == null || map.capacity() < HEADER_BYTES ||
+				map.getInt() != JOURNAL_MAGIC || map.getInt() != FILE_VERSION ||
+				map.getLong() != loadedGeneration )
+			return new int[0];
+
+		// whole records up to the first one that was not written completely
+		int count = map.remaining() / RECORD_BYTES;
+		int[] records = new int[count];
+		for ( int i = 0; i < count; i++ ) {
+			int value = map.getInt();
+			if ( map.getInt() != ~value ) {
+				int[] valid = new int[i];
+				System.arraycopy(records, 0, valid, 0, i);
+				return valid;
+			}
+			records[i] = value;
+		}
+		return records;
+	}
+
+	private static ByteBuffer map( File file ) {
+		if ( !file.exists() )
+			return null;
+
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(file, "r");
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return map;
+		}
+		catch ( IOException e ) {
+			return null; // no saved game then
+		}
+		finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Has the whole game written, records made before it are dropped since the
+	 * snapshot already has their moves.
+	 */
+	public void snapshot( GameSnapshot snapshot ) {
+		synchronized ( lock ) {
+			pendingSnapshot = snapshot;
+			pendingCount = 0;
+			start();
+			lock.notify();
+		}
+	}
+
+	/**
+	 * Has a record added to the journal after the last snapshot.
+	 */
+	public void record( int value ) {
+		synchronized ( lock ) {
+			if ( pendingCount == pending.length ) {
+				int[] bigger = new int[pending.length*2];
+				System.arraycopy(pending, 0, bigger, 0, pendingCount);
+				pending = bigger;
+			}
+			pending[pendingCount++] = value;
+			start();
+			lock.notify();
+		}
+	}
+
+	private void start() {
+		if ( writer == null ) {
+			writer = new Thread(this, "AutosaveJournal");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Writes what the game hands over, a snapshot before the records that follow it.
+	 */
+	@Override
+	public void run() {
+		while ( true ) {
+			GameSnapshot snapshot;
+			int count;
+			synchronized ( lock ) {
+				while ( pendingSnapshot == null && pendingCount == 0 ) {
+					try {
+						lock.wait();
+					}
+					catch ( InterruptedException e ) {
+						return;
+					}
+				}
+				snapshot = pendingSnapshot;
+				pendingSnapshot = null;
+
+				// the records are written from one array while more go in the other
+				int[] swap = writing;
+				writing = pending;
+				pending = swap.length >= writing.length ? swap : new int[writing.length];
+				count = pendingCount;
+				pendingCount = 0;
+			}
+
+			try {
+				if ( snapshot != null )
+					writeSnapshot(snapshot);
+				if ( count > 0 && journalChannel != null )
+					appendRecords(writing, count);
+			}
+			catch ( IOException e ) {
+				// autosave is only a safety net, the next snapshot starts the files again
+				closeJournal();
+			}
+		}
+	}
+
+	private void writeSnapshot( GameSnapshot snapshot ) throws IOException {
+		generation++;
+
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + snapshot.getSize());
+			buffer.putInt(SNAPSHOT_MAGIC).putInt(FILE_VERSION).putLong(generation);
+			snapshot.write(buffer);
+			buffer.flip();
+
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			while ( buffer.hasRemaining() )
+				channel.write(buffer);
+			channel.force(true);
+		}
+		finally {
+			out.close();
+		}
+		if ( !temp.renameTo(snapshotFile) ) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+
+		// the records before this snapshot are in it, the journal starts again
+		closeJournal();
+		journalOut = new RandomAccessFile(journalFile, "rw");
+		journalChannel = journalOut.getChannel();
+		journalChannel.truncate(0);
+		recordBuffer.clear();
+		recordBuffer.putInt(JOURNAL_MAGIC).putInt(FILE_VERSION).putLong(generation);
+		recordBuffer.flip();
+		while ( recordBuffer.hasRemaining() )
+			journalChannel.write(recordBuffer);
+	}
+
+	private void appendRecords( int[] records, int count ) throws IOException {
+		int i = 0;
+		while ( i < count ) {
+			recordBuffer.clear();
+			while ( i < count && recordBuffer.remaining() >= RECORD_BYTES ) {
+				recordBuffer.putInt(records[i]).putInt(~records[i]);
+				i++;
+			}
+			recordBuffer.flip();
+			while ( recordBuffer.hasRemaining() )
+				journalChannel.write(recordBuffer);
+		}
+	}
+
+	private void closeJournal() {
+		close(journalOut);
+		journalOut = null;
+		journalChannel = null;
+	}
+
+	private static void close( RandomAccessFile file ) {
+		if ( file != null ) {
+			try {
+				file.close();
+			}
+			catch ( IOException e ) {
+				; // nothing else to do
+			}
+		}
+	}
+
+	private static AutosaveJournal journal;
+
+	private final File directory;
+	private final File snapshotFile;
+	private final File journalFile;
+
+	// handed over by the UI thread
+	private final Object lock = new Object();
+	private GameSnapshot pendingSnapshot;
+	private int[] pending = new int[64];
+	private int pendingCount;
+	private Thread writer;
+
+	// used only on the journal's thread, after loading
+	private long generation;
+	private long loadedGeneration;
+	private int[] writing = new int[64];
+	private RandomAccessFile journalOut;
+	private FileChannel journalChannel;
+	private final ByteBuffer recordBuffer = ByteBuffer.allocateDirect(512*RECORD_BYTES);
+}
@@ -0,0 +1,246 @@
+package sohrakoff.cory.dimthelights;
+
+import android.graphics.Rect;
+
+/**
+ * This class places the lights of a board in a view. The lights are a grid of
+ * equal squares, so only the board's top left corner, the light size and the
+ * spacing are kept and the light under a touch is found by dividing.
+ *
+ * Boards too big to tap when fitted to the view are zoomed in, and the view is
+ * then a window onto the board that can be panned. The corner of the board moves
+ * off the view, so lights and touches go through the same offset and only the
+ * rows and columns in the window need drawing.
+ *
+ * @author cory
+ *
+ */
+public class BoardLayout {
+
+	// smallest light that can be tapped reliably, bigger boards start zoomed in
+	public static final int MIN_TOUCH_LIGHT_SIZE = 32;
+
+	// boards can be zoomed in until their lights are this size
+	public static final int MAX_ZOOM_LIGHT_SIZE = 64;
+
+	/**
+	 * Fits a board to a view, the largest lights that fit with spacing around
+	 * them, centered. Big boards drop the spacing to a single pixel once it would
+	 * take more room than the lights themselves, and start zoomed in to lights
+	 * that can be tapped.
+	 */
+	public void setViewSize( int width, int height, int rows, int cols ) {
+		this.rows = rows;
+		this.cols = cols;
+		viewWidth = width;
+		viewHeight = height;
+
+		fitSpacing = Constants.LIGHT_SPACING;
+		fitSize = fitLightSize(width, height, rows, cols, fitSpacing);
+		if ( fitSize < fitSpacing ) {
+			fitSpacing = 1;
+			fitSize = Math.max(fitLightSize(width, height, rows, cols, fitSpacing), 1);
+		}
+
+		pitch = 0; // centered rather than zoomed about a point
+		setLightSize(Math.max(fitSize, MIN_TOUCH_LIGHT_SIZE), width/2, height/2);
+	}
+
+	/**
+	 * @return The largest light size that fits the board in the view, determined by
+	 * the tighter of the width and height.
+	 */
+	private static int fitLightSize( int width, int height, int rows, int cols, int spacing ) {
+		// rows/cols + 2 because we want at least spacing padding on each side of screen
+		int widthSize = (width-(cols+2)*spacing) / cols;
+		int heightSize = (height-(rows+2)*spacing) / rows;
+		return Math.min(widthSize, heightSize);
+	}
+
+	/**
+	 * Zooms keeping the point of the board under (x, y) in the view where it is.
+	 */
+	private void setLightSize( int size, int x, int y ) {
+		int oldPitch = pitch;
+		lightSize = size;
+		if ( size == fitSize )
+			spacing = fitSpacing;
+		else
+			spacing = size < Constants.LIGHT_SPACING ? 1 : Constants.LIGHT_SPACING;
+		pitch = lightSize + spacing;
+
+		if ( oldPitch > 0 ) {
+			left = x - (int) ((long) (x - left)*pitch / oldPitch);
+			top = y - (int) ((long) (y - top)*pitch / oldPitch);
+		}
+		else {
+			left = (viewWidth - getBoardWidth()) / 2;
+			top = (viewHeight - getBoardHeight()) / 2;
+		}
+		clampOffset();
+	}
+
+	public boolean canZoomIn() {
+		return lightSize < getMaxLightSize();
+	}
+
+	public boolean canZoomOut() {
+		return lightSize > fitSize;
+	}
+
+	/**
+	 * Doubles the light size about the middle of the view.
+	 */
+	public void zoomIn() {
+		setLightSize(Math.min(lightSize*2, getMaxLightSize()), viewWidth/2, viewHeight/2);
+	}
+
+	/**
+	 * Halves the light size about the middle of the view, down to the whole board.
+	 */
+	public void zoomOut() {
+		setLightSize(Math.max(lightSize/2, fitSize), viewWidth/2, viewHeight/2);
+	}
+
+	private int getMaxLightSize() {
+		return Math.max(fitSize, MAX_ZOOM_LIGHT_SIZE);
+	}
+
+	/**
+	 * Moves the board by a number of pixels, as far as it can go.
+	 */
+	public void panBy( int dx, int dy ) {
+		left += dx;
+		top += dy;
+		clampOffset();
+	}
+
+	/**
+	 * Pans so a point of the board, given as a fraction of its width and height,
+	 * is in the middle of the view.
+	 */
+	public void centerOn( float fractionX, float fractionY ) {
+		left = viewWidth/2 - (int) (fractionX*getBoardWidth());
+		top = viewHeight/2 - (int) (fractionY*getBoardHeight());
+		clampOffset();
+	}
+
+	/**
+	 * Keeps a board that fits the view centered and a bigger board from leaving
+	 * more than the spacing uncovered at an edge.
+	 */
+	private void clampOffset() {
+		left = clamp(left, viewWidth, getBoardWidth());
+		top = clamp(top, viewHeight, getBoardHeight());
+	}
+
+	private int clamp( int offset, int view, int board ) {
+		if ( board + 2*spacing <= view )
+			return (view - board) / 2;
+		return Math.max(view - board - spacing, Math.min(offset, spacing));
+	}
+
+	/**
+	 * @return true if the board is bigger than the view and can be panned.
+	 */
+	public boolean isScrollable() {
+		return getBoardWidth() + 2*spacing > viewWidth || getBoardHeight() + 2*spacing > viewHeight;
+	}
+
+	/**
+	 * @return The cell (row*cols+col) of the light at a point, or -1 if the point
+	 * is off the board or in the spacing between lights.
+	 */
+	public int cellAt( int x, int y ) {
+		if ( pitch == 0 )
+			return -1; // not fitted to a view yet
+
+		int dx = x - left;
+		int dy = y - top;
+		if ( dx < 0 || dy < 0 )
+			return -1;
+
+		int col = dx / pitch;
+		int row = dy / pitch;
+		if ( row >= rows || col >= cols || dx % pitch >= lightSize || dy % pitch >= lightSize )
+			return -1;
+		return row*cols + col;
+	}
+
+	/**
+	 * Sets a rectangle to the bounds of a light.
+	 */
+	public void getBounds( int row, int col, Rect bounds ) {
+		int x = getLightLeft(col);
+		int y = getLightTop(row);
+		bounds.set(x, y, x + lightSize, y + lightSize);
+	}
+
+	public int getLightLeft( int col ) {
+		return left + col*pitch;
+	}
+
+	public int getLightTop( int row ) {
+		return top + row*pitch;
+	}
+
+	// first and last rows and columns with a light at least partly in the view
+
+	public int getFirstVisibleRow() {
+		return Math.max(0, -top / pitch);
+	}
+
+	public int getLastVisibleRow() {
+		return Math.min(rows-1, (viewHeight - 1 - top) / pitch);
+	}
+
+	public int getFirstVisibleCol() {
+		return Math.max(0, -left / pitch);
+	}
+
+	public int getLastVisibleCol() {
+		return Math.min(cols-1, (viewWidth - 1 - left) / pitch);
+	}
+
+	/**
+	 * Sets a rectangle to the part of the board in the view, scaled from the
+	 * whole board to the given width and height.
+	 */
+	public void getVisibleArea( int width, int height, Rect area ) {
+		long boardWidth = getBoardWidth();
+		long boardHeight = getBoardHeight();
+		area.set((int) (-left*width / boardWidth), (int) (-top*height / boardHeight),
+				(int) ((viewWidth - left)*width / boardWidth), (int) ((viewHeight - top)*height / boardHeight));
+	}
+
+	private int getBoardWidth() {
+		return cols*pitch - spacing;
+	}
+
+	private int getBoardHeight() {
+		return rows*pitch - spacing;
+	}
+
+	public int getLightSize() {
+		return lightSize;
+	}
+
+	public int getSpacing() {
+		return spacing;
+	}
+
+	private int rows;
+	private int cols;
+	private int viewWidth;
+	private int viewHeight;
+
+	// light size and spacing that fit the whole board in the view
+	private int fitSize;
+	private int fitSpacing;
+
+	private int left; // top left corner of the first light, off the view when panned
+	private int top;
+	private int lightSize;
+	private int spacing;
+	private int pitch; // light size plus spacing
+}
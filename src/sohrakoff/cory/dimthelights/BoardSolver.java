@@ -0,0 +1,46 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This interface is implemented by the classes that work out which lights to
+ * press to turn off a board. Use Solvers.getSolver() to get the best solver for
+ * a board shape.
+ *
+ * @author cory
+ *
+ */
+public interface BoardSolver {
+
+	/**
+	 * Finds a set of presses that turns off every light.
+	 *
+	 * @param lights The board to solve.
+	 * @param presses Set to the lights that need to be pressed, same size as lights.
+	 * @return false if the board can not be solved.
+	 */
+	public boolean solve( LightBoard lights, LightBoard presses );
+
+	/**
+	 * @return The fewest presses needed to solve the board or -1 if it can not be solved.
+	 */
+	public int minimumMoves( LightBoard lights );
+
+	/**
+	 * @return The number of independent quiet patterns, sets of presses that leave
+	 * the board unchanged.
+	 */
+	public int getNullity();
+
+	/**
+	 * @return true if solutions and minimumMoves() are always the shortest, false
+	 * if the shape has too many quiet patterns to search.
+	 */
+	public boolean isShortest();
+
+	/**
+	 * Sets a board to one of the quiet patterns, only kept by solvers that are
+	 * isShortest().
+	 *
+	 * @param q The pattern, from 0 to getNullity()-1.
+	 */
+	public void getQuietPattern( int q, LightBoard pattern );
+}
@@ -0,0 +1,158 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.HashMap;
+
+/**
+ * This class finds the canonical form of a square board, the lowest of the
+ * eight boards it can be turned into by rotating and reflecting it. Boards with
+ * the same canonical form need the same number of moves and their solutions are
+ * the same solution turned the same way, so caches and puzzle packs can keep one
+ * board for all eight.
+ *
+ * Boards are packed into a long with light (row, col) as bit row*size+col, so
+ * boards up to 8x8 are supported. Each transform moves every light somewhere
+ * fixed, so it is done a byte at a time with a table that gives the moved bits of
+ * every value of every byte.
+ *
+ * Transforms 0 to 3 turn the board 0, 90, 180 and 270 degrees clockwise, 4 and 5
+ * mirror it left to right and top to bottom, 6 reflects it across the main
+ * diagonal and 7 across the other diagonal.
+ *
+ * @author cory
+ *
+ */
+public class BoardSymmetry {
+
+	public static final int TRANSFORMS = 8;
+	public static final int IDENTITY = 0;
+
+	// largest board whose lights fit in a long
+	public static final int MAX_SIZE = 8;
+
+	public BoardSymmetry( int size ) {
+		if ( size < 1 || size > MAX_SIZE )
+			throw new IllegalArgumentException("Unsupported board size " + size);
+
+		this.size = size;
+		bytes = (size*size + 7) >>> 3;
+		tables = new long[TRANSFORMS*bytes*256];
+
+		for ( int t = 0; t < TRANSFORMS; t++ )
+			for ( int b = 0; b < bytes; b++ ) {
+				int offset = (t*bytes + b) << 8;
+				for ( int bit = 0; bit < 8; bit++ ) {
+					int cell = (b << 3) + bit;
+					if ( cell >= size*size )
+						break;
+					long moved = 1L << transformCell(cell, t);
+
+					for ( int value = 0; value < 256; value++ )
+						if ( (value & (1 << bit)) != 0 )
+							tables[offset + value] |= moved;
+				}
+			}
+	}
+
+	/**
+	 * Returns the shared symmetry tables for a board size.
+	 */
+	public static synchronized BoardSymmetry getSymmetry( int size ) {
+		Integer key = Integer.valueOf(size);
+		BoardSymmetry symmetry = symmetries.get(key);
+		if ( symmetry == null ) {
+			symmetry = new BoardSymmetry(size);
+			symmetries.put(key, symmetry);
+		}
+		return symmetry;
+	}
+
+	/**
+	 * @return The board turned by a transform.
+	 */
+	public long transform( long board, int transform ) {
+		long result = 0;
+		int offset = transform*bytes << 8;
+		for ( int b = 0; b < bytes; b++ ) {
+			result |= tables[offset + (int) (board & 0xff)];
+			board >>>= 8;
+			offset += 256;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The transform that turns the board into its canonical form, the
+	 * lowest one if several do.
+	 */
+	public int canonicalTransform( long board ) {
+		int best = IDENTITY;
+		long lowest = board;
+		for ( int t = 1; t < TRANSFORMS; t++ ) {
+			long turned = transform(board, t);
+			// compared unsigned so an 8x8 board with its last light on is not lowest
+			if ( (turned ^ Long.MIN_VALUE) < (lowest ^ Long.MIN_VALUE) ) {
+				lowest = turned;
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return The lowest of the eight turned boards.
+	 */
+	public long canonical( long board ) {
+		return transform(board, canonicalTransform(board));
+	}
+
+	/**
+	 * @return The cell (row*size+col) a light moves to.
+	 */
+	public int transformCell( int cell, int transform ) {
+		int row = cell / size;
+		int col = cell % size;
+		int last = size-1;
+		switch ( transform ) {
+			case 1:
+				return col*size + last-row;
+			case 2:
+				return (last-row)*size + last-col;
+			case 3:
+				return (last-col)*size + row;
+			case 4:
+				return row*size + last-col;
+			case 5:
+				return (last-row)*size + col;
+			case 6:
+				return col*size + row;
+			case 7:
+				return (last-col)*size + last-row;
+			default:
+				return cell;
+		}
+	}
+
+	/**
+	 * @return The transform that undoes a transform, used to turn a solution of
+	 * the canonical board back to the board the player sees.
+	 */
+	public static int inverse( int transform ) {
+		if ( transform == 1 )
+			return 3;
+		if ( transform == 3 )
+			return 1;
+		return transform; // half turn and reflections undo themselves
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private static final HashMap<Integer, BoardSymmetry> symmetries = new HashMap<Integer, BoardSymmetry>();
+
+	private final int size;
+	private final int bytes;
+
+	// moved bits of every value of every byte, 256 longs per transform and byte
+	private final long[] tables;
+}
@@ -0,0 +1,103 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This class puts a SolutionCache in front of a solver for boards that pack into
+ * a single long. Square boards are cached under their canonical form, so the
+ * eight turned copies of a board share one entry and a cached solution is turned
+ * back to the board that was asked for.
+ *
+ * Only solvable boards are cached, the game never makes any others.
+ *
+ * @author cory
+ *
+ */
+public class CachedSolver implements BoardSolver {
+
+	// entries kept for each board shape
+	public static final int CACHE_ENTRIES = 1024;
+
+	public CachedSolver( BoardSolver solver, int rows, int cols ) {
+		if ( rows*cols > 64 )
+			throw new IllegalArgumentException("Board too large to cache " + rows + "x" + cols);
+
+		this.solver = solver;
+		symmetry = rows == cols && rows <= BoardSymmetry.MAX_SIZE ? BoardSymmetry.getSymmetry(rows) : null;
+		cache = new SolutionCache(CACHE_ENTRIES);
+		solution = new LightBoard(rows, cols);
+	}
+
+	@Override
+	public synchronized boolean solve( LightBoard lights, LightBoard presses ) {
+		if ( !solve(lights.getCells()) )
+			return false;
+		bits[0] = result;
+		presses.setBits(bits);
+		return true;
+	}
+
+	@Override
+	public synchronized int minimumMoves( LightBoard lights ) {
+		if ( !solve(lights.getCells()) )
+			return -1;
+		return Long.bitCount(result);
+	}
+
+	/**
+	 * Looks the board up in the cache, solving and adding it on a miss.
+	 *
+	 * @return false if the board can not be solved, otherwise the presses are in result.
+	 */
+	private boolean solve( long board ) {
+		int transform = symmetry == null ? BoardSymmetry.IDENTITY : symmetry.canonicalTransform(board);
+		long key = symmetry == null ? board : symmetry.transform(board, transform);
+
+		if ( cache.get(key, bits) ) {
+			result = turnBack(bits[0], transform);
+			return true;
+		}
+
+		bits[0] = board;
+		solution.setBits(bits);
+		if ( !solver.solve(solution, solution) )
+			return false;
+
+		// turning a board turns its shortest solution the same way
+		result = solution.getCells();
+		cache.put(key, symmetry == null ? result : symmetry.transform(result, transform));
+		return true;
+	}
+
+	private long turnBack( long presses, int transform ) {
+		if ( symmetry == null )
+			return presses;
+		return symmetry.transform(presses, BoardSymmetry.inverse(transform));
+	}
+
+	@Override
+	public int getNullity() {
+		return solver.getNullity();
+	}
+
+	@Override
+	public boolean isShortest() {
+		return solver.isShortest();
+	}
+
+	@Override
+	public void getQuietPattern( int q, LightBoard pattern ) {
+		solver.getQuietPattern(q, pattern);
+	}
+
+	public SolutionCache getCache() {
+		return cache;
+	}
+
+	private final BoardSolver solver;
+	private final BoardSymmetry symmetry;
+	private final SolutionCache cache;
+
+	// scratch board and the presses of the last solve
+	private final LightBoard solution;
+	private final long[] bits = new long[1];
+	private long result;
+}
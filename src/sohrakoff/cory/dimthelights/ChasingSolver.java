@@ -0,0 +1,416 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * This class solves a board by chasing the lights down. Pressing the lights
+ * below the lit lights of a row turns that row off, so once the presses on the
+ * first row are chosen every other row is forced. Chasing from an empty first
+ * row leaves some lights on in the last row, and since everything is linear over
+ * GF(2) the first row presses that clear them can be looked up in a table.
+ *
+ * The table is built once for each board shape by chasing every single first row
+ * press and reducing the resulting last rows. A solve is then two chases and a
+ * small table multiply, all done with whole row words, instead of eliminating
+ * the full rows*cols matrix.
+ *
+ * Boards and presses are row bitsets in the layout of LightBoard.getRowVector(),
+ * wordsPerRow longs for every row.
+ *
+ * A solution is made as short as possible the same way LightsSolver does it, on
+ * the same search threads. Every step of the search is a pass over the whole
+ * board, so it is only done for shapes where all of the steps together stay
+ * within MAX_SEARCH_WORDS, larger ones keep the solution of the chase.
+ *
+ * @author cory
+ *
+ */
+public class ChasingSolver implements BoardSolver {
+
+	// most board words the shortest solution search may go through, a few tens of
+	// milliseconds split across the cores
+	public static final long MAX_SEARCH_WORDS = 1L << 26;
+
+	public ChasingSolver( int rows, int cols ) {
+		if ( cols > LightBoard.MAX_COLUMNS )
+			throw new IllegalArgumentException("Unsupported board width " + cols);
+
+		this.rows = rows;
+		this.cols = cols;
+		wordsPerRow = (cols + 63) >>> 6;
+		lastWordMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+
+		board = new long[rows*wordsPerRow];
+		presses = new long[rows*wordsPerRow];
+		solution = new long[rows*wordsPerRow];
+		candidate = new long[rows*wordsPerRow];
+		lastRow = new long[wordsPerRow];
+		switched = new long[wordsPerRow];
+
+		// last row left on by pressing each single first row light on a dark board
+		long[] effects = new long[cols*wordsPerRow];
+		for ( int col = 0; col < cols; col++ ) {
+			clear(presses);
+			presses[col >>> 6] = 1L << col;
+			chase(board, presses, lastRow);
+			System.arraycopy(lastRow, 0, effects, col*wordsPerRow, wordsPerRow);
+		}
+
+		// equation i says which first row presses switch light i of the last row,
+		// it is reduced next to an identity so the table can be read off after
+		long[] matrix = new long[cols*wordsPerRow];
+		long[] transform = new long[cols*wordsPerRow];
+		for ( int i = 0; i < cols; i++ ) {
+			for ( int col = 0; col < cols; col++ )
+				if ( testBit(effects, col, i) )
+					setBit(matrix, i, col);
+			setBit(transform, i, i);
+		}
+
+		int[] pivotColumns = new int[cols];
+		int rank = 0;
+		for ( int col = 0; col < cols; col++ ) {
+			int pivot = -1;
+			for ( int r = rank; r < cols; r++ )
+				if ( testBit(matrix, r, col) ) {
+					pivot = r;
+					break;
+				}
+			if ( pivot == -1 )
+				continue; // free column
+
+			swapRows(matrix, pivot, rank);
+			swapRows(transform, pivot, rank);
+			for ( int r = 0; r < cols; r++ )
+				if ( r != rank && testBit(matrix, r, col) ) {
+					xorRow(matrix, r, rank);
+					xorRow(transform, r, rank);
+				}
+			pivotColumns[rank++] = col;
+		}
+
+		firstRowTable = new long[cols*wordsPerRow];
+		for ( int i = 0; i < rank; i++ )
+			System.arraycopy(transform, i*wordsPerRow, firstRowTable, pivotColumns[i]*wordsPerRow, wordsPerRow);
+
+		nullity = cols - rank;
+		checks = new long[nullity*wordsPerRow];
+		System.arraycopy(transform, rank*wordsPerRow, checks, 0, nullity*wordsPerRow);
+
+		// every free first row column gives a quiet pattern once it is chased, only
+		// kept when there are few enough of them to search
+		int boardWords = rows*wordsPerRow;
+		boolean search = nullity <= LightsSolver.MAX_SEARCH_NULLITY &&
+				((long) boardWords << nullity) <= MAX_SEARCH_WORDS;
+		quietPatterns = new long[search ? nullity*boardWords : 0];
+		int q = 0;
+		int p = 0;
+		for ( int col = 0; col < cols && quietPatterns.length > 0; col++ ) {
+			if ( p < rank && pivotColumns[p] == col ) {
+				p++;
+				continue;
+			}
+			clear(presses);
+			presses[col >>> 6] |= 1L << col;
+			for ( int i = 0; i < rank; i++ )
+				if ( testBit(matrix, i, col) )
+					presses[pivotColumns[i] >>> 6] |= 1L << pivotColumns[i];
+
+			chase(board, presses, lastRow);
+			System.arraycopy(presses, 0, quietPatterns, q*boardWords, boardWords);
+			q++;
+		}
+	}
+
+	/**
+	 * Returns a solver for the given board shape, building its table the first
+	 * time the shape is asked for.
+	 */
+	public static synchronized ChasingSolver getSolver( int rows, int cols ) {
+		Integer key = Integer.valueOf(rows << 16 | cols);
+		ChasingSolver solver = solvers.get(key);
+		if ( solver == null ) {
+			solver = new ChasingSolver(rows, cols);
+			solvers.put(key, solver);
+		}
+		return solver;
+	}
+
+	@Override
+	public synchronized boolean solve( LightBoard lights, LightBoard presses ) {
+		lights.getRowVector(board);
+		if ( !solve(board, this.presses) )
+			return false;
+		presses.setRowVector(this.presses);
+		return true;
+	}
+
+	@Override
+	public synchronized int minimumMoves( LightBoard lights ) {
+		lights.getRowVector(board);
+		if ( !solve(board, presses) )
+			return -1;
+		return weight(presses);
+	}
+
+	/**
+	 * Finds the shortest set of presses that turns off every light, shapes with
+	 * too many quiet patterns to search get the solution of the chase.
+	 *
+	 * @param board The lights that are on as row bitsets.
+	 * @param presses Filled with the lights to press as row bitsets.
+	 * @return false if the board can not be solved.
+	 */
+	public synchronized boolean solve( long[] board, long[] presses ) {
+		// chase with no first row presses to see what is left on the last row
+		clear(presses);
+		chase(board, presses, lastRow);
+
+		for ( int q = 0; q < nullity; q++ )
+			if ( dot(checks, q, lastRow) != 0 )
+				return false;
+
+		// look up the first row presses that clear the last row and chase again
+		clear(presses);
+		for ( int col = 0; col < cols; col++ )
+			if ( dot(firstRowTable, col, lastRow) != 0 )
+				presses[col >>> 6] |= 1L << col;
+		chase(board, presses, lastRow);
+
+		if ( quietPatterns.length > 0 )
+			shortest(presses);
+		return true;
+	}
+
+	/**
+	 * Presses the lights below every light that is still on, starting from the
+	 * presses already set on the first row.
+	 *
+	 * @param remaining Filled with the lights left on in the last row.
+	 */
+	private void chase( long[] board, long[] presses, long[] remaining ) {
+		for ( int row = 0; row < rows; row++ ) {
+			// lights of this row once the row above, this row and the row below are pressed
+			int start = row*wordsPerRow;
+			switchedBy(presses, start);
+			for ( int w = 0; w < wordsPerRow; w++ ) {
+				long lit = board[start + w] ^ switched[w];
+				if ( row > 0 )
+					lit ^= presses[start - wordsPerRow + w];
+
+				if ( row < rows-1 )
+					presses[start + wordsPerRow + w] = lit;
+				else
+					remaining[w] = lit;
+			}
+		}
+	}
+
+	/**
+	 * Works out the lights of a row switched by the presses on that row.
+	 */
+	private void switchedBy( long[] presses, int start ) {
+		for ( int w = 0; w < wordsPerRow; w++ ) {
+			long p = presses[start + w];
+			long left = p << 1;
+			long right = p >>> 1;
+			if ( w > 0 )
+				left |= presses[start + w - 1] >>> 63;
+			if ( w < wordsPerRow-1 )
+				right |= presses[start + w + 1] << 63;
+			switched[w] = p ^ left ^ right;
+		}
+		switched[wordsPerRow-1] &= lastWordMask;
+	}
+
+	/**
+	 * Tries the presses with every combination of quiet patterns and keeps the
+	 * lightest, on the search threads when there are many.
+	 */
+	private void shortest( long[] presses ) {
+		int boardWords = rows*wordsPerRow;
+		System.arraycopy(presses, 0, solution, 0, boardWords);
+		long result;
+		if ( nullity >= LightsSolver.PARALLEL_SEARCH_NULLITY && LightsSolver.SEARCH_THREADS > 1 )
+			result = parallelSearch();
+		else
+			result = searchRange(0, 1 << nullity, candidate);
+
+		int combination = (int) result;
+		for ( int q = 0; q < nullity; q++ )
+			if ( (combination & (1 << q)) != 0 )
+				for ( int j = 0; j < boardWords; j++ )
+					presses[j] ^= quietPatterns[q*boardWords + j];
+	}
+
+	/**
+	 * Tries the solution with the quiet pattern combinations whose Gray code
+	 * position is in [start, end), as LightsSolver.searchRange() does.
+	 *
+	 * @param vector Scratch vector that is not used by any other search.
+	 * @return The best weight in the upper int and its combination in the lower int.
+	 */
+	private long searchRange( int start, int end, long[] vector ) {
+		int boardWords = rows*wordsPerRow;
+		int combination = start ^ (start >>> 1);
+		System.arraycopy(solution, 0, vector, 0, boardWords);
+		for ( int q = 0; q < nullity; q++ )
+			if ( (combination & (1 << q)) != 0 )
+				for ( int j = 0; j < boardWords; j++ )
+					vector[j] ^= quietPatterns[q*boardWords + j];
+
+		int bestWeight = weight(vector);
+		int bestCombination = combination;
+		for ( int i = start + 1; i < end; i++ ) {
+			int offset = Integer.numberOfTrailingZeros(i)*boardWords;
+			int w = 0;
+			for ( int j = 0; j < boardWords; j++ ) {
+				long word = vector[j] ^ quietPatterns[offset + j];
+				vector[j] = word;
+				w += Long.bitCount(word);
+			}
+			if ( w < bestWeight ) {
+				bestWeight = w;
+				bestCombination = i ^ (i >>> 1);
+			}
+		}
+		return (long) bestWeight << 32 | (bestCombination & 0xffffffffL);
+	}
+
+	/**
+	 * Splits the search into equal ranges on the search threads. The calling
+	 * thread waits for all of them.
+	 */
+	private long parallelSearch() {
+		int combinations = 1 << nullity;
+		int tasks = Math.min(LightsSolver.SEARCH_THREADS*LightsSolver.SEARCH_TASKS_PER_THREAD, combinations);
+		int step = combinations / tasks;
+		final int boardWords = rows*wordsPerRow;
+
+		ArrayList<Future<Long>> results = new ArrayList<Future<Long>>(tasks);
+		for ( int t = 0; t < tasks; t++ ) {
+			final int start = t*step;
+			final int end = t == tasks-1 ? combinations : start + step;
+			results.add(LightsSolver.searchThreads.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return Long.valueOf(searchRange(start, end, new long[boardWords]));
+				}
+			}));
+		}
+
+		long best = Long.MAX_VALUE;
+		try {
+			for ( int t = 0; t < tasks; t++ ) {
+				long result = results.get(t).get().longValue();
+				if ( result >>> 32 < best >>> 32 )
+					best = result;
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			return searchRange(0, combinations, candidate);
+		}
+		catch ( ExecutionException e ) {
+			return searchRange(0, combinations, candidate);
+		}
+		return best;
+	}
+
+	private int dot( long[] matrix, int row, long[] vector ) {
+		long parity = 0;
+		int offset = row*wordsPerRow;
+		for ( int w = 0; w < wordsPerRow; w++ )
+			parity ^= matrix[offset + w] & vector[w];
+		return Long.bitCount(parity) & 1;
+	}
+
+	private int weight( long[] vector ) {
+		int count = 0;
+		for ( int w = 0; w < rows*wordsPerRow; w++ )
+			count += Long.bitCount(vector[w]);
+		return count;
+	}
+
+	private void clear( long[] vector ) {
+		for ( int w = 0; w < vector.length; w++ )
+			vector[w] = 0;
+	}
+
+	private boolean testBit( long[] matrix, int row, int col ) {
+		return (matrix[row*wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	private void setBit( long[] matrix, int row, int col ) {
+		matrix[row*wordsPerRow + (col >>> 6)] |= 1L << col;
+	}
+
+	private void xorRow( long[] matrix, int target, int source ) {
+		for ( int w = 0; w < wordsPerRow; w++ )
+			matrix[target*wordsPerRow + w] ^= matrix[source*wordsPerRow + w];
+	}
+
+	private void swapRows( long[] matrix, int a, int b ) {
+		if ( a == b )
+			return;
+		for ( int w = 0; w < wordsPerRow; w++ ) {
+			long temp = matrix[a*wordsPerRow + w];
+			matrix[a*wordsPerRow + w] = matrix[b*wordsPerRow + w];
+			matrix[b*wordsPerRow + w] = temp;
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	@Override
+	public int getNullity() {
+		return nullity;
+	}
+
+	@Override
+	public boolean isShortest() {
+		return nullity == 0 || quietPatterns.length > 0;
+	}
+
+	@Override
+	public void getQuietPattern( int q, LightBoard pattern ) {
+		if ( quietPatterns.length == 0 )
+			throw new IllegalStateException("Quiet patterns not kept for " + rows + "x" + cols);
+		int boardWords = rows*wordsPerRow;
+		long[] vector = new long[boardWords];
+		System.arraycopy(quietPatterns, q*boardWords, vector, 0, boardWords);
+		pattern.setRowVector(vector);
+	}
+
+	private static final HashMap<Integer, ChasingSolver> solvers = new HashMap<Integer, ChasingSolver>();
+
+	private final int rows;
+	private final int cols;
+	private final int wordsPerRow;
+	private final long lastWordMask;
+	private final int nullity;
+
+	// first row presses for each last row light and the checks the last row must
+	// be even against, wordsPerRow longs each, then the chased quiet patterns
+	private final long[] firstRowTable;
+	private final long[] checks;
+	private final long[] quietPatterns;
+
+	// scratch vectors used while solving
+	private final long[] board;
+	private final long[] presses;
+	private final long[] solution;
+	private final long[] candidate;
+	private final long[] lastRow;
+	private final long[] switched;
+}
@@ -16,6 +16,12 @@ public interface Constants {
 	public static final int MENU_3X3 = 3;
 	public static final int MENU_4X4 = 4;
 	public static final int MENU_5X5 = 5;
+	public static final int MENU_HINT = 6;
+	public static final int MENU_CUSTOM_SIZE = 7;
+	public static final int MENU_DAILY = 8;
+	public static final int MENU_PUZZLE_NUMBER = 9;
+	public static final int MENU_UNDO = 10;
+	public static final int MENU_REDO = 11;
 	
 	// default game choice will be a 4x4 game
 	public static final int DEFAULT_GAME = MENU_4X4;
@@ -27,23 +33,29 @@ public interface Constants {
 	public static final int GAME_PLAYING = 6;
 	public static final int GAME_COMPLETE = 7;
 	public static final int GAME_PAUSED = 8;
+	public static final int GAME_STARTING = 9; // the puzzle is being made
+	
+	// smallest and largest number of rows or columns for a custom size game
+	public static final int MIN_BOARD_SIZE = 2;
+	public static final int MAX_BOARD_SIZE = 256;
 	
 	// spacing between lights on game board (in pixels)
 	public static final int LIGHT_SPACING = 5;
 	
+	// draw the board on its own thread through GameSurface instead of in GameBoard
+	public static final boolean USE_RENDER_THREAD = false;
+	
+	// log the objects created while lights fade, which should be none
+	public static final boolean DEBUG_ALLOCATIONS = false;
+	
+	// log how long after onCreate the first frame and the light images are ready
+	public static final boolean DEBUG_STARTUP = false;
+	
 	// state beginning number of moves
 	public static final int BEGINNING_NUMBER_MOVES = 0;
 	
-	// minimum number of moves to solve the puzzles
-	public static final int MIN_MOVES_3X3 = 5;
-	public static final int MIN_MOVES_4X4 = 4;
-	public static final int MIN_MOVES_5X5 = 15;
-	
 	// set high scores array size
-	public static final int NUMBER_OF_LEVELS = 3;
+	public static final String DEFAULT_LEVELS = "3x3:4x4:5x5"; // board sizes listed with high scores by default
 	public static final int NUMBER_OF_HIGH_SCORES = 3; // NUMBER OF SCORES TO KEEP FOR EACH LEVEL
-	public static final int[][] defaultHighScores = { {2*MIN_MOVES_3X3,2*MIN_MOVES_3X3+1,2*MIN_MOVES_3X3+2}, 
-													  {2*MIN_MOVES_4X4,2*MIN_MOVES_4X4+1,2*MIN_MOVES_4X4+2}, 
-													  {2*MIN_MOVES_5X5,2*MIN_MOVES_5X5+1,2*MIN_MOVES_5X5+2} };
 	public static final String defaultPlayerName = "CTS";
 }
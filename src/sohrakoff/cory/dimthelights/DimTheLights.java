@@ -4,11 +4,17 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.InputType;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
+import android.widget.ZoomControls;
 
 /**
  * This is the main class for the game. It contains code for the menu as well as 
@@ -24,10 +30,12 @@ public class DimTheLights extends Activity {
 	private TextView newGameMessage;
 	
 	private boolean highScoresDialogOpen;
+	private long createTime;
 
 	/** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        createTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         
@@ -37,6 +45,49 @@ public class DimTheLights extends Activity {
         // get newGameMessage
         newGameMessage = (TextView) findViewById(R.id.newGameMessage);
         
+        // zoom buttons for boards too big to tap when they fit the screen
+        ZoomControls zoomControls = (ZoomControls) findViewById(R.id.zoomControls);
+        zoomControls.setOnZoomInClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				gameBoard.zoomIn();
+			}
+        });
+        zoomControls.setOnZoomOutClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				gameBoard.zoomOut();
+			}
+        });
+        gameBoard.setZoomControls(zoomControls);
+        
+        if ( Constants.USE_RENDER_THREAD ) {
+        	GameSurface gameSurface = (GameSurface) findViewById(R.id.gameSurface);
+        	gameSurface.setVisibility(View.VISIBLE);
+        	gameBoard.setRenderSurface(gameSurface);
+        }
+        
+        // distance tables are cached in app private storage between launches
+        DistanceTable.setCacheDirectory(getFilesDir());
+        
+        // a configuration change keeps the game, its caches and the light images,
+        // only the views are new
+        Retained retained = (Retained) getLastNonConfigurationInstance();
+        if ( retained != null ) {
+        	gameState = retained.gameState;
+        	gameState.attach(this, gameBoard);
+        	gameBoard.setRetainedSprites(retained.onSprite, retained.offSprite);
+        	
+        	if ( savedInstanceState != null ) {
+        		highScoresDialogOpen = savedInstanceState.getBoolean("highScoresDialogOpen", false);
+        		newGameMessage.setVisibility(savedInstanceState.getInt("newGameMessageVisibility", View.GONE));
+        		if (highScoresDialogOpen) {
+        			gameBoard.showHighScoreDialog(gameState.isHighScore());
+        		}
+        	}
+        	return;
+        }
+        
         // create gameState
         gameState = new GameState(this, gameBoard);
         
@@ -51,11 +102,41 @@ public class DimTheLights extends Activity {
         	}
         }
         else {
-        	// default game is already set up
+        	// the game that was being played when the process was last stopped,
+        	// or the default game that is already set up
         	highScoresDialogOpen = false;
+        	gameState.restoreJournal(AutosaveJournal.getJournal(getFilesDir()));
         }
+        gameState.setJournal(AutosaveJournal.getJournal(getFilesDir()));
     }
 
+	/**
+	 * What is kept when the activity is made again for a configuration change.
+	 */
+	private static class Retained {
+		GameState gameState;
+		Bitmap onSprite;
+		Bitmap offSprite;
+	}
+
+	@Override
+	public Object onRetainNonConfigurationInstance() {
+		Retained retained = new Retained();
+		retained.gameState = gameState;
+		retained.onSprite = gameBoard.getOnSprite();
+		retained.offSprite = gameBoard.getOffSprite();
+		gameBoard.handOverSprites();
+		return retained;
+	}
+
+	/**
+	 * @return When onCreate was called, in SystemClock.uptimeMillis(), for timing
+	 * the start up.
+	 */
+	public long getCreateTime() {
+		return createTime;
+	}
+
 	public boolean isHighScoresDialogOpen() {
 		return highScoresDialogOpen;
 	}
@@ -72,15 +153,28 @@ public class DimTheLights extends Activity {
 			.setIcon(R.drawable.option4icon);
 		menu.add(0, Constants.MENU_5X5, 2, "5x5 Game")
 			.setIcon(R.drawable.option5icon);
-		menu.add(0, Constants.MENU_HIGH_SCORES, 3, "High Scores")
+		menu.add(0, Constants.MENU_CUSTOM_SIZE, 3, "Other Size");
+		menu.add(0, Constants.MENU_HINT, 4, "Hint");
+		menu.add(0, Constants.MENU_DAILY, 5, "Daily Puzzle");
+		menu.add(0, Constants.MENU_PUZZLE_NUMBER, 6, "Puzzle #");
+		menu.add(0, Constants.MENU_HIGH_SCORES, 7, "High Scores")
 			.setIcon(R.drawable.scoresicon);
-		menu.add(0, Constants.MENU_HOW_TO_PLAY, 4, "How To Play")
+		menu.add(0, Constants.MENU_HOW_TO_PLAY, 8, "How To Play")
 			.setIcon(R.drawable.howtoicon);
-		menu.add(0, Constants.MENU_ABOUT, 5, "About")
+		menu.add(0, Constants.MENU_ABOUT, 9, "About")
 			.setIcon(R.drawable.abouticon);
+		menu.add(0, Constants.MENU_UNDO, 10, "Undo");
+		menu.add(0, Constants.MENU_REDO, 11, "Redo");
 		
 		return super.onCreateOptionsMenu(menu);
 	}
+	
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		menu.findItem(Constants.MENU_UNDO).setEnabled(gameState.canUndo());
+		menu.findItem(Constants.MENU_REDO).setEnabled(gameState.canRedo());
+		return super.onPrepareOptionsMenu(menu);
+	}
 
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
@@ -98,6 +192,29 @@ public class DimTheLights extends Activity {
 				gameState.newGame(Constants.MENU_5X5);
 				gameBoard.invalidate();
 				return true;
+			case Constants.MENU_CUSTOM_SIZE:
+				showCustomSizeDialog();
+				return true;
+			case Constants.MENU_HINT:
+				if ( gameState.getCurrentGameState() == Constants.GAME_PLAYING ) {
+					gameBoard.setShowHint(true);
+					gameBoard.invalidate();
+					gameState.showOptimalMovesRemaining();
+				}
+				return true;
+			case Constants.MENU_DAILY:
+				gameState.newDailyGame();
+				gameBoard.invalidate();
+				return true;
+			case Constants.MENU_PUZZLE_NUMBER:
+				showPuzzleNumberDialog();
+				return true;
+			case Constants.MENU_UNDO:
+				gameBoard.undo();
+				return true;
+			case Constants.MENU_REDO:
+				gameBoard.redo();
+				return true;
 			case Constants.MENU_HIGH_SCORES:
 				showHighScores();
 				return true;
@@ -111,6 +228,14 @@ public class DimTheLights extends Activity {
 		return super.onOptionsItemSelected(item);
 	}
 
+	@Override
+	protected void onPause() {
+		super.onPause();
+		
+		// the process can be stopped any time after this
+		gameState.flushScores();
+	}
+
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		gameState.saveState(outState);
@@ -149,6 +274,77 @@ public class DimTheLights extends Activity {
 		ad.show();
 	}
 	
+	private void showCustomSizeDialog() {
+		final EditText rowsText = new EditText(this);
+		rowsText.setInputType(InputType.TYPE_CLASS_NUMBER);
+		rowsText.setHint("Rows (" + Constants.MIN_BOARD_SIZE + "-" + Constants.MAX_BOARD_SIZE + ")");
+		
+		final EditText colsText = new EditText(this);
+		colsText.setInputType(InputType.TYPE_CLASS_NUMBER);
+		colsText.setHint("Columns (" + Constants.MIN_BOARD_SIZE + "-" + Constants.MAX_BOARD_SIZE + ")");
+		
+		LinearLayout layout = new LinearLayout(this);
+		layout.setOrientation(LinearLayout.VERTICAL);
+		layout.addView(rowsText);
+		layout.addView(colsText);
+		
+		AlertDialog ad = new AlertDialog.Builder(this)
+		.setTitle(R.string.custom_size_title)
+		.setView(layout)
+		.setPositiveButton(R.string.new_game, new OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				int rows = parseBoardSize(rowsText.getText().toString());
+				int cols = parseBoardSize(colsText.getText().toString());
+				gameState.newGame(rows, cols);
+				gameBoard.invalidate();
+			}	
+		})
+		.create();
+		ad.show();
+	}
+	
+	private void showPuzzleNumberDialog() {
+		final EditText numberText = new EditText(this);
+		numberText.setInputType(InputType.TYPE_CLASS_NUMBER);
+		numberText.setHint("Puzzle number");
+		
+		AlertDialog ad = new AlertDialog.Builder(this)
+		.setTitle(R.string.puzzle_number_title)
+		.setView(numberText)
+		.setPositiveButton(R.string.new_game, new OnClickListener() {
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				long number;
+				try {
+					number = Long.parseLong(numberText.getText().toString().trim());
+				}
+				catch ( NumberFormatException e ) {
+					number = 0;
+				}
+				gameState.newGame(gameState.getBoardRows(), gameState.getBoardCols(), number);
+				gameBoard.invalidate();
+			}	
+		})
+		.create();
+		ad.show();
+	}
+	
+	/**
+	 * Reads a row or column count typed by the player, keeping it in the
+	 * supported range. Nothing typed gives the default game size.
+	 */
+	private static int parseBoardSize( String s ) {
+		int size;
+		try {
+			size = Integer.parseInt(s.trim());
+		}
+		catch ( NumberFormatException e ) {
+			size = Constants.DEFAULT_GAME;
+		}
+		return Math.max(Constants.MIN_BOARD_SIZE, Math.min(size, Constants.MAX_BOARD_SIZE));
+	}
+	
 	private void showHighScores() {
 		AlertDialog ad = new AlertDialog.Builder(this)
 		.setTitle(R.string.high_scores_title)
@@ -0,0 +1,450 @@
+package sohrakoff.cory.dimthelights;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class holds the fewest moves needed to solve every position of a small
+ * board, so the distance of a position is a single table read instead of a solve.
+ *
+ * Only positions that can be solved are stored. They are exactly the boards that
+ * are even against every quiet pattern, and when the quiet patterns are reduced
+ * so each has a light of its own, that light of a solvable board is decided by
+ * its other lights. Dropping those lights gives a 2^rank entry index that is
+ * linear in the board, so pressing a light xors a fixed mask into the index.
+ *
+ * The table is built with a level synchronous breadth first search from the dark
+ * board. Every level each thread pulls into its own slice of the table: a position
+ * that has not been reached is at distance d+1 if one press takes it to a
+ * position at distance d. Distances are then packed into 4 bits each, 4MB for a
+ * 5x5 board, or kept as bytes for shapes where they do not fit.
+ *
+ * Tables are built offline by main() and memory mapped at runtime from the
+ * cache directory.
+ *
+ * @author cory
+ *
+ */
+public class DistanceTable {
+
+	// largest board a table can be built for, 2^25 positions fit a 16MB table
+	public static final int MAX_LIGHTS = 25;
+
+	// tables of up to 2^16 entries are small enough to build on the device
+	private static final int MAX_RUNTIME_RANK = 16;
+
+	// file layout, header ints followed by the packed distances
+	private static final int FILE_MAGIC = 0x4454444d; // "DTDM"
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+
+	private DistanceTable( int rows, int cols ) {
+		if ( rows*cols > MAX_LIGHTS )
+			throw new IllegalArgumentException("Board too large for a distance table " + rows + "x" + cols);
+
+		this.rows = rows;
+		this.cols = cols;
+		int lights = rows*cols;
+
+		// press masks, light (row, col) is bit row*cols+col
+		long[] pressMasks = new long[lights];
+		for ( int row = 0; row < rows; row++ )
+			for ( int col = 0; col < cols; col++ ) {
+				long mask = bit(row, col);
+				if ( row > 0 )
+					mask |= bit(row-1, col);
+				if ( row < rows-1 )
+					mask |= bit(row+1, col);
+				if ( col > 0 )
+					mask |= bit(row, col-1);
+				if ( col < cols-1 )
+					mask |= bit(row, col+1);
+				pressMasks[row*cols + col] = mask;
+			}
+
+		// reduce the press matrix next to an identity, the identity rows of the
+		// matrix rows that vanish are the quiet patterns
+		long[] matrix = pressMasks.clone();
+		long[] transform = new long[lights];
+		for ( int i = 0; i < lights; i++ )
+			transform[i] = 1L << i;
+		int rank = 0;
+		for ( int col = 0; col < lights; col++ ) {
+			int pivot = -1;
+			for ( int r = rank; r < lights; r++ )
+				if ( (matrix[r] & (1L << col)) != 0 ) {
+					pivot = r;
+					break;
+				}
+			if ( pivot == -1 )
+				continue;
+
+			long temp = matrix[pivot];
+			matrix[pivot] = matrix[rank];
+			matrix[rank] = temp;
+			temp = transform[pivot];
+			transform[pivot] = transform[rank];
+			transform[rank] = temp;
+			for ( int r = 0; r < lights; r++ )
+				if ( r != rank && (matrix[r] & (1L << col)) != 0 ) {
+					matrix[r] ^= matrix[rank];
+					transform[r] ^= transform[rank];
+				}
+			rank++;
+		}
+		this.rank = rank;
+
+		// give every quiet pattern a light no other one has, the highest left over
+		int nullity = lights - rank;
+		quietPatterns = new long[nullity];
+		droppedLights = new int[nullity];
+		System.arraycopy(transform, rank, quietPatterns, 0, nullity);
+		for ( int q = 0; q < nullity; q++ ) {
+			int best = q;
+			for ( int i = q+1; i < nullity; i++ )
+				if ( Long.numberOfLeadingZeros(quietPatterns[i]) < Long.numberOfLeadingZeros(quietPatterns[best]) )
+					best = i;
+			long temp = quietPatterns[q];
+			quietPatterns[q] = quietPatterns[best];
+			quietPatterns[best] = temp;
+
+			int light = 63 - Long.numberOfLeadingZeros(quietPatterns[q]);
+			droppedLights[q] = light;
+			for ( int i = 0; i < nullity; i++ )
+				if ( i != q && (quietPatterns[i] & (1L << light)) != 0 )
+					quietPatterns[i] ^= quietPatterns[q];
+		}
+
+		// dropped lights are removed from the highest down
+		Arrays.sort(droppedLights);
+		pressIndexes = new int[lights];
+		for ( int i = 0; i < lights; i++ )
+			pressIndexes[i] = (int) index(pressMasks[i]);
+	}
+
+	private long bit( int row, int col ) {
+		return 1L << (row*cols + col);
+	}
+
+	/**
+	 * Removes the dropped lights from a solvable board.
+	 */
+	private long index( long board ) {
+		for ( int i = droppedLights.length-1; i >= 0; i-- ) {
+			int light = droppedLights[i];
+			board = (board & ((1L << light) - 1)) | ((board >>> (light+1)) << light);
+		}
+		return board;
+	}
+
+	/**
+	 * Builds the table for a board shape.
+	 *
+	 * @param threads The number of threads to search with.
+	 */
+	public static DistanceTable build( int rows, int cols, int threads ) {
+		final DistanceTable table = new DistanceTable(rows, cols);
+		final int entries = 1 << table.rank;
+		final byte[] distances = new byte[entries];
+		Arrays.fill(distances, UNREACHED);
+		distances[0] = 0;
+
+		// slices are whole multiples of 64 entries so no two threads write one cache line
+		threads = Math.max(1, Math.min(threads, (entries + 63) >>> 6));
+		final int slice = ((entries + threads - 1) / threads + 63) & ~63;
+		final int[] found = new int[threads];
+
+		int reached = 1;
+		int level = 0;
+		while ( reached < entries ) {
+			final int distance = level;
+			Thread[] workers = new Thread[threads];
+			for ( int t = 0; t < threads; t++ ) {
+				final int thread = t;
+				workers[t] = new Thread("DistanceTable level") {
+					@Override
+					public void run() {
+						found[thread] = table.pull(distances, distance,
+								thread*slice, Math.min(entries, (thread+1)*slice));
+					}
+				};
+				workers[t].start();
+			}
+
+			int added = 0;
+			for ( int t = 0; t < threads; t++ ) {
+				try {
+					workers[t].join();
+				}
+				catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted building distance table");
+				}
+				added += found[t];
+			}
+			if ( added == 0 )
+				throw new IllegalStateException("Distance table search stopped at level " + level);
+			reached += added;
+			level++;
+		}
+
+		table.maxDistance = level;
+		table.bitsPerEntry = level < 16 ? 4 : 8;
+		if ( table.bitsPerEntry == 8 ) {
+			table.data = ByteBuffer.wrap(distances);
+		}
+		else {
+			byte[] packed = new byte[(entries + 1) >>> 1];
+			for ( int i = 0; i < entries; i++ )
+				packed[i >>> 1] |= distances[i] << ((i & 1) << 2);
+			table.data = ByteBuffer.wrap(packed);
+		}
+		return table;
+	}
+
+	/**
+	 * Sets the unreached positions of [start, end) that are one press from a
+	 * position at the given distance. Only entries in the slice are written.
+	 *
+	 * @return The number of positions reached.
+	 */
+	private int pull( byte[] distances, int distance, int start, int end ) {
+		byte next = (byte) (distance + 1);
+		int count = 0;
+		for ( int i = start; i < end; i++ ) {
+			if ( distances[i] != UNREACHED )
+				continue;
+			for ( int p = 0; p < pressIndexes.length; p++ )
+				if ( distances[i ^ pressIndexes[p]] == distance ) {
+					distances[i] = next;
+					count++;
+					break;
+				}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The fewest presses that turn off the board or -1 if it can not be solved.
+	 */
+	public int distance( LightBoard lights ) {
+		return distance(lights.getCells());
+	}
+
+	/**
+	 * @param board The lights that are on with light (row, col) as bit row*cols+col.
+	 * @return The fewest presses that turn off the board or -1 if it can not be solved.
+	 */
+	public int distance( long board ) {
+		for ( int q = 0; q < quietPatterns.length; q++ )
+			if ( (Long.bitCount(board & quietPatterns[q]) & 1) != 0 )
+				return -1;
+
+		int i = (int) index(board);
+		if ( bitsPerEntry == 8 )
+			return data.get(i) & 0xff;
+		return (data.get(i >>> 1) >>> ((i & 1) << 2)) & 0xf;
+	}
+
+	/**
+	 * Writes the table to a file that can be memory mapped by load(). The file is
+	 * written next to its final name and renamed so a partly written file is never
+	 * loaded.
+	 */
+	public void save( File file ) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(rows).putInt(cols)
+				.putInt(rank).putInt(bitsPerEntry).putInt(maxDistance);
+			header.clear();
+
+			ByteBuffer body = data.duplicate();
+			body.clear();
+
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			while ( header.hasRemaining() )
+				channel.write(header);
+			while ( body.hasRemaining() )
+				channel.write(body);
+			channel.force(true);
+		}
+		finally {
+			out.close();
+		}
+
+		if ( !temp.renameTo(file) ) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+	}
+
+	/**
+	 * Memory maps a table written by save().
+	 *
+	 * @return The table or null if the file is missing or does not match the shape.
+	 */
+	public static DistanceTable load( File file, int rows, int cols ) {
+		if ( !file.exists() || rows*cols > MAX_LIGHTS )
+			return null;
+
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(file, "r");
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			DistanceTable table = new DistanceTable(rows, cols);
+			int bitsPerEntry = map.getInt(20);
+			long entries = 1L << table.rank;
+			long size = HEADER_BYTES + (bitsPerEntry == 4 ? (entries + 1) >>> 1 : entries);
+			if ( map.getInt(0) != FILE_MAGIC || map.getInt(4) != FILE_VERSION ||
+					map.getInt(8) != rows || map.getInt(12) != cols || map.getInt(16) != table.rank ||
+					(bitsPerEntry != 4 && bitsPerEntry != 8) || channel.size() != size )
+				return null;
+
+			table.bitsPerEntry = bitsPerEntry;
+			table.maxDistance = map.getInt(24);
+			map.position(HEADER_BYTES);
+			table.data = map.slice();
+			return table;
+		}
+		catch ( IOException e ) {
+			// unreadable table, the caller goes without
+			return null;
+		}
+		finally {
+			// the mapping stays valid after the file is closed
+			if ( in != null ) {
+				try {
+					in.close();
+				}
+				catch ( IOException e ) {
+					; // nothing else to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the directory where the tables for each board shape are kept. Without
+	 * one only tables small enough to build on the device are used.
+	 */
+	public static synchronized void setCacheDirectory( File directory ) {
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Returns the table for a board shape from the cache directory. Tables
+	 * small enough are built and saved the first time, larger ones must have been
+	 * built by main() and copied there.
+	 *
+	 * @return The table or null if there is none for the shape.
+	 */
+	public static synchronized DistanceTable getTable( int rows, int cols ) {
+		if ( rows*cols > MAX_LIGHTS )
+			return null;
+
+		Integer key = Integer.valueOf(rows << 16 | cols);
+		if ( tables.containsKey(key) )
+			return tables.get(key);
+
+		File directory = cacheDirectory;
+		File file = directory == null ? null : new File(directory, fileName(rows, cols));
+		DistanceTable table = file == null ? null : load(file, rows, cols);
+		if ( table == null && rows*cols - Solvers.getSolver(rows, cols).getNullity() <= MAX_RUNTIME_RANK ) {
+			table = build(rows, cols, 1);
+			if ( file != null ) {
+				try {
+					table.save(file);
+				}
+				catch ( IOException e ) {
+					; // table still works, it will be rebuilt next time
+				}
+			}
+		}
+		tables.put(key, table);
+		return table;
+	}
+
+	public static String fileName( int rows, int cols ) {
+		return "distance_" + rows + "x" + cols + ".bin";
+	}
+
+	/**
+	 * Builds the 3x3, 4x4 and 5x5 tables, or the shapes given as RxC arguments
+	 * after the output directory, and reports the time and memory each took.
+	 */
+	public static void main( String[] args ) throws IOException {
+		File directory = new File(args.length > 0 ? args[0] : ".");
+		String[] shapes = args.length > 1 ? new String[args.length-1] : new String[] { "3x3", "4x4", "5x5" };
+		if ( args.length > 1 )
+			System.arraycopy(args, 1, shapes, 0, shapes.length);
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		for ( String shape : shapes ) {
+			int x = shape.indexOf('x');
+			int rows = Integer.parseInt(shape.substring(0, x));
+			int cols = Integer.parseInt(shape.substring(x+1));
+
+			Runtime runtime = Runtime.getRuntime();
+			System.gc();
+			long memory = runtime.totalMemory() - runtime.freeMemory();
+			long start = System.nanoTime();
+			DistanceTable table = build(rows, cols, threads);
+			long time = System.nanoTime() - start;
+			long used = runtime.totalMemory() - runtime.freeMemory() - memory;
+
+			File file = new File(directory, fileName(rows, cols));
+			table.save(file);
+			System.out.println(shape + ": " + (1L << table.rank) + " positions, max distance " +
+					table.maxDistance + ", " + table.bitsPerEntry + " bits each, built in " +
+					time/1000000 + "ms on " + threads + " threads, " + used/1024 + "KB heap, " +
+					file.length()/1024 + "KB file " + file);
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * @return The most presses any position of the shape needs.
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	private static final HashMap<Integer, DistanceTable> tables = new HashMap<Integer, DistanceTable>();
+	private static File cacheDirectory;
+
+	private static final byte UNREACHED = -1;
+
+	private final int rows;
+	private final int cols;
+	private final int rank;
+
+	// a solvable board is even against every quiet pattern, the dropped light of
+	// each pattern is left out of the index
+	private final long[] quietPatterns;
+	private final int[] droppedLights;
+
+	// index change made by pressing each light
+	private final int[] pressIndexes;
+
+	private int bitsPerEntry;
+	private int maxDistance;
+	private ByteBuffer data;
+}
@@ -4,15 +4,25 @@ import android.R.color;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Debug;
+import android.os.SystemClock;
 import android.text.InputFilter;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.ZoomControls;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class defines the view that draws the game grid and handles the input events
@@ -26,7 +36,7 @@ public class GameBoard extends View {
 	// reference to main Activity
 	DimTheLights mainActivity;
 	
-	// references to on and off lights
+	// references to on and off lights, decoded and scaled on the sprite thread
 	Drawable offLight;
 	Drawable onLight;
 	
@@ -38,6 +48,111 @@ public class GameBoard extends View {
 	public void setResetScale(boolean resetScale) {
 		this.resetScale = resetScale;
 	}
+	
+	// highlight for the hint light, shown until the next light is tapped
+	private boolean showHint = false;
+	private Paint hintPaint;
+	
+	public void setShowHint(boolean showHint) {
+		this.showHint = showHint;
+		
+		// bring the hint into view on a board that is panned
+		if ( showHint && !resetScale && layout.isScrollable() ) {
+			GameState gameState = mainActivity.getGameState();
+			int cell = gameState.getHintCell();
+			int cols = gameState.getBoardCols();
+			if ( cell != -1 ) {
+				layout.centerOn((cell % cols + 0.5f) / cols, (cell / cols + 0.5f) / gameState.getBoardRows());
+				redrawBoard = true;
+			}
+		}
+	}
+	
+	// the board is kept drawn in a bitmap the size of the view, only the lights
+	// that switch are drawn into it again and each frame is a single copy
+	private Bitmap boardBitmap;
+	private Canvas boardCanvas;
+	private boolean redrawBoard = true;
+	
+	// the light images scaled to the light size on a background thread, the board
+	// is drawn with plain squares until the first ones are ready
+	private Bitmap onSprite;
+	private Bitmap offSprite;
+	private int spriteSize; // light size of the sprites asked for last
+	private boolean replaced; // a new view has the images, they are not ours to recycle
+	private Paint placeholderPaint;
+	private final Rect spriteBounds = new Rect();
+	private static final ExecutorService spriteExecutor = Executors.newSingleThreadExecutor();
+	
+	// with Constants.DEBUG_STARTUP, the first frame and first sprites are timed
+	private boolean firstFrameDrawn;
+	
+	/**
+	 * Has the whole board drawn into the board bitmap again before the next
+	 * frame, for when every light may have changed.
+	 */
+	public void setRedrawBoard(boolean redrawBoard) {
+		this.redrawBoard = redrawBoard;
+		redrawMinimap = redrawBoard;
+		if ( redrawBoard )
+			fades.clear(); // a new board is drawn as it is
+	}
+	
+	// switched lights fade between the images, a frame at a time while any are fading
+	private final LightFades fades = new LightFades();
+	private final Rect fadeDirty = new Rect();
+	private Paint fadePaint;
+	private Paint backgroundPaint;
+	private int backgroundColor;
+	
+	// with Constants.DEBUG_ALLOCATIONS, objects created while drawing fade frames
+	private int fadeFrames;
+	private int fadeAllocations;
+	
+	// where the lights are in the view, zoomed and panned on big boards
+	private final BoardLayout layout = new BoardLayout();
+	private ZoomControls zoomControls;
+	
+	// a board that can be panned is tapped when the finger lifts without dragging
+	private static final int TOUCH_SLOP = 8;
+	private int downX;
+	private int downY;
+	private int lastX;
+	private int lastY;
+	private boolean dragging;
+	private boolean minimapTouched; // dragging on the minimap moves the view there
+	
+	// whole board at a pixel per light, or per square of lights on boards wider or
+	// taller than MINIMAP_SIZE, shown in a corner while panning a big board
+	private static final int MINIMAP_SIZE = 96;
+	private static final int MINIMAP_LIT_COLOR = 0xff5599ff;
+	private static final int MINIMAP_DARK_COLOR = 0xff303030;
+	private Bitmap minimapBitmap;
+	private boolean redrawMinimap = true; // panning only redraws the board
+	private int minimapBlock = 1; // lights across a minimap pixel, lit if any of them is
+	private int[] minimapPixels; // one row
+	private long[] minimapRows; // board in LightBoard.getRowVector() layout
+	private long[] minimapBlockRow; // the rows of a square of lights or'ed together
+	private final Rect minimapBounds = new Rect();
+	private final Rect minimapView = new Rect();
+	private Paint minimapPaint;
+	
+	public void setZoomControls(ZoomControls zoomControls) {
+		this.zoomControls = zoomControls;
+	}
+	
+	// with a render surface this view only takes input and keeps the game, the
+	// board is drawn on the surface's thread from snapshots
+	private GameSurface renderSurface;
+	
+	public void setRenderSurface(GameSurface renderSurface) {
+		this.renderSurface = renderSurface;
+	}
+	
+	// reused while redrawing only the lights a press switched
+	private final Rect bounds = new Rect();
+	private final Rect dirty = new Rect();
+	private final int[] changedCells = new int[5];
 
 	public GameBoard(Context context, AttributeSet attrs) {
 		super(context, attrs);
@@ -48,8 +163,25 @@ public class GameBoard extends View {
 		// set up reference to mainActivity
 		mainActivity = (DimTheLights) context;
 		
-		offLight = (Drawable) mainActivity.getResources().getDrawable(R.drawable.dark);
-		onLight = (Drawable) mainActivity.getResources().getDrawable(R.drawable.light);
+		placeholderPaint = new Paint();
+		
+		hintPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		hintPaint.setColor(Color.YELLOW);
+		hintPaint.setStyle(Paint.Style.STROKE);
+		hintPaint.setStrokeWidth(Constants.LIGHT_SPACING);
+		
+		minimapPaint = new Paint();
+		minimapPaint.setColor(Color.WHITE);
+		minimapPaint.setStyle(Paint.Style.STROKE);
+		
+		// color.background_dark is a resource id, the color itself is looked up once
+		backgroundColor = context.getResources().getColor(color.background_dark);
+		fadePaint = new Paint();
+		backgroundPaint = new Paint();
+		backgroundPaint.setColor(backgroundColor);
+		
+		if ( Constants.DEBUG_ALLOCATIONS )
+			Debug.startAllocCounting();
 	}
 
 	@Override
@@ -59,8 +191,19 @@ public class GameBoard extends View {
 			resetScale = false; // scale reset
 		}
 		
-		// Clear the screen before redrawing
-		canvas.drawColor(color.background_dark);
+		if ( Constants.DEBUG_STARTUP && !firstFrameDrawn ) {
+			firstFrameDrawn = true;
+			logStartup("First frame");
+		}
+		
+		if ( renderSurface != null ) {
+			publishFrame();
+			super.onDraw(canvas);
+			return;
+		}
+		
+		// Clear the screen before redrawing, only the dirty area after a press
+		canvas.drawColor(backgroundColor);
 		
 		switch(mainActivity.getGameState().getCurrentGameState()){
 			case Constants.GAME_COMPLETE:
@@ -76,37 +219,231 @@ public class GameBoard extends View {
 		super.onDraw(canvas);
 	}
 	
+	/**
+	 * Hands the board as it is now to the render surface.
+	 */
+	private void publishFrame() {
+		GameState gameState = mainActivity.getGameState();
+		int state = gameState.getCurrentGameState();
+		boolean playing = state == Constants.GAME_PLAYING || state == Constants.GAME_COMPLETE;
+		int hintCell = showHint ? gameState.getHintCell() : -1;
+		// the surface draws sprites at their own size, so none while they are rescaled
+		boolean sized = onSprite != null && onSprite.getWidth() == layout.getLightSize();
+		renderSurface.publish(playing, gameState.getLightStates(), layout, hintCell,
+				sized ? onSprite : null, sized ? offSprite : null);
+	}
+	
 	private void drawPlayingState(Canvas canvas) {
 		GameState gameState = mainActivity.getGameState();
-		boolean[][] lightStates = gameState.getLightStates();
-		Rect[][] lightPos = gameState.getLightPositions();
-		int gameBoardSize = gameState.getGameBoardSize();
-		
-		for ( int row = 0; row < gameBoardSize; row++ )
-			for ( int col = 0; col < gameBoardSize; col++ )
-			{
-				// if light is on
-				if ( lightStates[row][col] == true ) {
-					onLight.setBounds(lightPos[row][col]);
-					onLight.draw(canvas);
-				}
-				else // if light is off
-				{
-					offLight.setBounds(lightPos[row][col]);
-					offLight.draw(canvas);			
-				}
+		
+		if ( redrawBoard ) {
+			drawBoard();
+			redrawBoard = false;
+		}
+		if ( redrawMinimap && layout.isScrollable() ) {
+			drawMinimap();
+			redrawMinimap = false;
+		}
+		if ( fades.getCount() > 0 )
+			drawFades();
+		canvas.drawBitmap(boardBitmap, 0, 0, null);
+		
+		if ( showHint ) {
+			int cell = gameState.getHintCell();
+			int cols = gameState.getBoardCols();
+			if ( cell != -1 ) {
+				layout.getBounds(cell / cols, cell % cols, bounds);
+				canvas.drawRect(bounds, hintPaint);
+			}
+		}
+		
+		if ( layout.isScrollable() ) {
+			canvas.drawBitmap(minimapBitmap, null, minimapBounds, null);
+			layout.getVisibleArea(minimapBounds.width(), minimapBounds.height(), minimapView);
+			minimapView.offset(minimapBounds.left, minimapBounds.top);
+			minimapView.intersect(minimapBounds);
+			canvas.drawRect(minimapView, minimapPaint);
+			canvas.drawRect(minimapBounds, minimapPaint);
+		}
+	}
+	
+	/**
+	 * Draws the lights that are in the view into the board bitmap, so the cost
+	 * follows the size of the view and not of the board.
+	 */
+	private void drawBoard() {
+		boardCanvas.drawColor(backgroundColor);
+		int lastRow = layout.getLastVisibleRow();
+		int lastCol = layout.getLastVisibleCol();
+		for ( int row = layout.getFirstVisibleRow(); row <= lastRow; row++ )
+			for ( int col = layout.getFirstVisibleCol(); col <= lastCol; col++ )
+				drawLight(row, col);
+	}
+	
+	/**
+	 * Draws a frame of the lights that are fading into the board bitmap and asks
+	 * for the next frame while any are still fading.
+	 */
+	private void drawFades() {
+		int allocations = Constants.DEBUG_ALLOCATIONS ? Debug.getThreadAllocCount() : 0;
+		
+		GameState gameState = mainActivity.getGameState();
+		LightBoard lights = gameState.getLightStates();
+		int cols = gameState.getBoardCols();
+		int now = (int) SystemClock.uptimeMillis();
+		
+		fadeDirty.setEmpty();
+		int count = fades.getCount();
+		for ( int i = 0; i < count; i++ ) {
+			int cell = fades.getCell(i);
+			int row = cell / cols;
+			int col = cell % cols;
+			layout.getBounds(row, col, bounds);
+			fadeDirty.union(bounds);
+			
+			// the old image with the new one over it, more opaque as the fade goes on
+			boolean lit = lights.isLit(row, col);
+			fadePaint.setAlpha(fades.getProgress(i, now));
+			boardCanvas.drawRect(bounds, backgroundPaint);
+			drawSprite(!lit, bounds, null);
+			drawSprite(lit, bounds, fadePaint);
+		}
+		fades.removeFinished(now);
+		
+		if ( fades.getCount() > 0 )
+			invalidate(fadeDirty);
+		
+		if ( Constants.DEBUG_ALLOCATIONS ) {
+			fadeFrames++;
+			fadeAllocations += Debug.getThreadAllocCount() - allocations;
+			if ( fades.getCount() == 0 ) {
+				Log.d("GameBoard", "Fade frames: " + fadeFrames + " allocations: " + fadeAllocations);
+				fadeFrames = 0;
+				fadeAllocations = 0;
 			}
+		}
+	}
+	
+	/**
+	 * Draws the whole minimap from the packed board, a row of pixels at a time.
+	 */
+	private void drawMinimap() {
+		GameState gameState = mainActivity.getGameState();
+		int rows = gameState.getBoardRows();
+		int cols = gameState.getBoardCols();
+		int wordsPerRow = (cols + 63) >>> 6;
+		int mapCols = minimapBitmap.getWidth();
+		
+		gameState.getLightStates().getRowVector(minimapRows);
+		for ( int mapRow = 0; mapRow < minimapBitmap.getHeight(); mapRow++ ) {
+			// a light of the square is lit if it is lit in any of its rows
+			for ( int w = 0; w < wordsPerRow; w++ )
+				minimapBlockRow[w] = 0;
+			int lastRow = Math.min(rows, (mapRow + 1)*minimapBlock);
+			for ( int row = mapRow*minimapBlock; row < lastRow; row++ )
+				for ( int w = 0; w < wordsPerRow; w++ )
+					minimapBlockRow[w] |= minimapRows[row*wordsPerRow + w];
+			
+			for ( int mapCol = 0; mapCol < mapCols; mapCol++ ) {
+				boolean lit = false;
+				int lastCol = Math.min(cols, (mapCol + 1)*minimapBlock);
+				for ( int col = mapCol*minimapBlock; col < lastCol && !lit; col++ )
+					lit = (minimapBlockRow[col >>> 6] & (1L << col)) != 0;
+				minimapPixels[mapCol] = lit ? MINIMAP_LIT_COLOR : MINIMAP_DARK_COLOR;
+			}
+			minimapBitmap.setPixels(minimapPixels, 0, mapCols, 0, mapRow, mapCols, 1);
+		}
+	}
+	
+	/**
+	 * @return true if any light in the minimap pixel of a light is lit.
+	 */
+	private boolean isMinimapLit(int row, int col) {
+		GameState gameState = mainActivity.getGameState();
+		LightBoard lights = gameState.getLightStates();
+		int firstRow = row - row % minimapBlock;
+		int firstCol = col - col % minimapBlock;
+		int lastRow = Math.min(gameState.getBoardRows(), firstRow + minimapBlock);
+		int lastCol = Math.min(gameState.getBoardCols(), firstCol + minimapBlock);
+		for ( int r = firstRow; r < lastRow; r++ )
+			for ( int c = firstCol; c < lastCol; c++ )
+				if ( lights.isLit(r, c) )
+					return true;
+		return false;
+	}
+	
+	/**
+	 * Draws one light into the board bitmap with the pre-scaled image for its state.
+	 */
+	private void drawLight(int row, int col) {
+		layout.getBounds(row, col, spriteBounds);
+		drawSprite(mainActivity.getGameState().getLightStates().isLit(row, col), spriteBounds, null);
+	}
+	
+	/**
+	 * Draws a light image into the board bitmap. The image is scaled while the
+	 * images for a new light size are being made, and is a plain square before
+	 * there are any.
+	 */
+	private void drawSprite(boolean lit, Rect bounds, Paint paint) {
+		Bitmap sprite = lit ? onSprite : offSprite;
+		if ( sprite == null ) {
+			placeholderPaint.setColor(lit ? MINIMAP_LIT_COLOR : MINIMAP_DARK_COLOR);
+			boardCanvas.drawRect(bounds, placeholderPaint);
+		}
+		else if ( sprite.getWidth() == bounds.width() )
+			boardCanvas.drawBitmap(sprite, bounds.left, bounds.top, paint);
+		else
+			boardCanvas.drawBitmap(sprite, null, bounds, paint);
 	}
 
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
 		int touchAction = event.getAction();
+		int x = (int) event.getX();
+		int y = (int) event.getY();
+		
+		// a board bigger than the view is dragged to pan it
+		if ( !resetScale && layout.isScrollable() &&
+				mainActivity.getGameState().getCurrentGameState() == Constants.GAME_PLAYING ) {
+			switch (touchAction) {
+				case MotionEvent.ACTION_DOWN:
+					downX = lastX = x;
+					downY = lastY = y;
+					dragging = false;
+					minimapTouched = renderSurface == null && minimapBounds.contains(x, y);
+					if ( minimapTouched )
+						centerOnMinimap(x, y);
+					return true;
+				case MotionEvent.ACTION_MOVE:
+					if ( minimapTouched ) {
+						centerOnMinimap(x, y);
+						return true;
+					}
+					if ( !dragging && Math.abs(x - downX) + Math.abs(y - downY) > TOUCH_SLOP )
+						dragging = true;
+					if ( dragging ) {
+						layout.panBy(x - lastX, y - lastY);
+						lastX = x;
+						lastY = y;
+						redrawBoard = true;
+						invalidate();
+					}
+					return true;
+				case MotionEvent.ACTION_UP:
+					if ( !dragging && !minimapTouched )
+						handleScreenTouch(downX, downY);
+					return true;
+				default:
+					return true;
+			}
+		}
 		
 		if (touchAction == MotionEvent.ACTION_DOWN) {
 			switch (mainActivity.getGameState().getCurrentGameState()) {
 				case Constants.GAME_PLAYING:
 					// Log.v("GameBoard", "GAME_PLAYING:ACTION_DOWN");
-					handleScreenTouch((int)event.getX(), (int)event.getY());
+					handleScreenTouch(x, y);
 					return true;
 				case Constants.GAME_COMPLETE:
 					// Log.v("GameBoard", "GAME_COMPLETE:ACTION_DOWN");
@@ -122,6 +459,13 @@ public class GameBoard extends View {
 		return super.onTouchEvent(event);
 	}
 	
+	private void centerOnMinimap(int x, int y) {
+		layout.centerOn((float) (x - minimapBounds.left) / minimapBounds.width(),
+				(float) (y - minimapBounds.top) / minimapBounds.height());
+		redrawBoard = true;
+		invalidate();
+	}
+	
 	/**
 	 * Sets up the scaling info so that the game board will display properly for
 	 * the current size of the GameBoard view.
@@ -130,29 +474,173 @@ public class GameBoard extends View {
 		int height = getHeight();
 		int width = getWidth();
 		
-		int gameBoardSize = mainActivity.getGameState().getGameBoardSize();
+		int rows = mainActivity.getGameState().getBoardRows();
+		int cols = mainActivity.getGameState().getBoardCols();
+		
+		layout.setViewSize(width, height, rows, cols);
+		setSprites();
+		fades.resize(rows*cols);
 		
-		int lightSize; // determined by smallest (width or height)
-		if ( width <= height ) {
-			// gameBoardSize + 2 because we want at least LIGHT_SPACING padding on each side of screen
-			lightSize = (width-(gameBoardSize+2)*Constants.LIGHT_SPACING) / gameBoardSize;
+		// the minimap keeps the board's shape within MINIMAP_SIZE in the top right
+		minimapBlock = (Math.max(rows, cols) + MINIMAP_SIZE - 1) / MINIMAP_SIZE;
+		int mapRows = (rows + minimapBlock - 1) / minimapBlock;
+		int mapCols = (cols + minimapBlock - 1) / minimapBlock;
+		if ( minimapBitmap == null || minimapBitmap.getWidth() != mapCols || minimapBitmap.getHeight() != mapRows ) {
+			if ( minimapBitmap != null )
+				minimapBitmap.recycle();
+			minimapBitmap = Bitmap.createBitmap(mapCols, mapRows, Bitmap.Config.ARGB_8888);
+			minimapPixels = new int[mapCols];
 		}
-		else {
-			lightSize = (height-(gameBoardSize+2)*Constants.LIGHT_SPACING) / gameBoardSize;
+		if ( minimapRows == null || minimapRows.length != rows*((cols + 63) >>> 6) ) {
+			minimapRows = new long[rows*((cols + 63) >>> 6)];
+			minimapBlockRow = new long[(cols + 63) >>> 6];
 		}
+		int scale = Math.max(1, MINIMAP_SIZE / Math.max(mapRows, mapCols));
+		int spacing = Constants.LIGHT_SPACING;
+		minimapBounds.set(width - spacing - mapCols*scale, spacing, width - spacing, spacing + mapRows*scale);
+		redrawMinimap = true;
 		
-		int horizontalScreenPadding = ((width-(gameBoardSize-1)*Constants.LIGHT_SPACING) - (lightSize*gameBoardSize)) / 2;
-		int verticalScreenPadding = ((height-(gameBoardSize-1)*Constants.LIGHT_SPACING) - (lightSize*gameBoardSize)) / 2;
+		if ( renderSurface == null &&
+				(boardBitmap == null || boardBitmap.getWidth() != width || boardBitmap.getHeight() != height) ) {
+			if ( boardBitmap != null )
+				boardBitmap.recycle();
+			boardBitmap = Bitmap.createBitmap(Math.max(width, 1), Math.max(height, 1), Bitmap.Config.ARGB_8888);
+			boardCanvas = new Canvas(boardBitmap);
+		}
+		redrawBoard = true;
+	}
+	
+	/**
+	 * Has the light images scaled to the light size once instead of every time a
+	 * light is drawn, and shows the zoom buttons that can be used.
+	 */
+	private void setSprites() {
+		requestSprites();
 		
-		Rect lightPositions[][] = new Rect[gameBoardSize][gameBoardSize];
-			
-		for ( int row = 0; row < gameBoardSize; row++ )
-			for ( int col = 0; col < gameBoardSize; col++ ) {
-				int left = horizontalScreenPadding + col*(Constants.LIGHT_SPACING + lightSize);
-				int top = verticalScreenPadding + row*(Constants.LIGHT_SPACING + lightSize) ;
-				lightPositions[row][col] = new Rect(left, top, left+lightSize, top+lightSize);
+		if ( zoomControls != null ) {
+			boolean zoomable = layout.canZoomIn() || layout.canZoomOut();
+			zoomControls.setVisibility(zoomable ? View.VISIBLE : View.GONE);
+			zoomControls.setIsZoomInEnabled(layout.canZoomIn());
+			zoomControls.setIsZoomOutEnabled(layout.canZoomOut());
+		}
+	}
+	
+	public void zoomIn() {
+		if ( resetScale )
+			return;
+		layout.zoomIn();
+		setSprites();
+		redrawBoard = true;
+		invalidate();
+	}
+	
+	public void zoomOut() {
+		if ( resetScale )
+			return;
+		layout.zoomOut();
+		setSprites();
+		redrawBoard = true;
+		invalidate();
+	}
+	
+	/**
+	 * Decodes the light images and scales them to the light size on the sprite
+	 * thread, so neither holds up a frame. The new images replace the old ones
+	 * once they are ready.
+	 */
+	private void requestSprites() {
+		final int size = layout.getLightSize();
+		if ( size == spriteSize )
+			return;
+		spriteSize = size;
+		
+		spriteExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// only ever used on this thread
+				if ( onLight == null ) {
+					offLight = mainActivity.getResources().getDrawable(R.drawable.dark);
+					onLight = mainActivity.getResources().getDrawable(R.drawable.light);
+				}
+				final Bitmap on = scaleSprite(onLight, size);
+				final Bitmap off = scaleSprite(offLight, size);
+				post(new Runnable() {
+					@Override
+					public void run() {
+						spritesLoaded(size, on, off);
+					}
+				});
 			}
-		mainActivity.getGameState().setLightPositions(lightPositions);
+		});
+	}
+	
+	private void spritesLoaded(int size, Bitmap on, Bitmap off) {
+		if ( replaced || size != layout.getLightSize() ) {
+			// zoomed again since and the images for the new size are on the way, or
+			// the view is gone and a new one may be using the old images
+			on.recycle();
+			off.recycle();
+			return;
+		}
+		
+		// the render thread may still be drawing with the old images
+		if ( onSprite != null && renderSurface == null ) {
+			onSprite.recycle();
+			offSprite.recycle();
+		}
+		if ( Constants.DEBUG_STARTUP && onSprite == null )
+			logStartup("Light images ready");
+		onSprite = on;
+		offSprite = off;
+		fades.clear();
+		redrawBoard = true;
+		invalidate();
+	}
+	
+	public Bitmap getOnSprite() {
+		return onSprite;
+	}
+	
+	public Bitmap getOffSprite() {
+		return offSprite;
+	}
+	
+	/**
+	 * Gives up the light images to the view that replaces this one, images still
+	 * being made for this view are thrown away.
+	 */
+	public void handOverSprites() {
+		replaced = true;
+	}
+	
+	/**
+	 * Starts with the light images of the view this one replaces, they are drawn
+	 * scaled until images for this view's light size are ready.
+	 */
+	public void setRetainedSprites(Bitmap onSprite, Bitmap offSprite) {
+		if ( onSprite == null || offSprite == null )
+			return;
+		this.onSprite = onSprite;
+		this.offSprite = offSprite;
+		spriteSize = onSprite.getWidth(); // not made again if the size is the same
+	}
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		replaced = true;
+		super.onDetachedFromWindow();
+	}
+	
+	private static Bitmap scaleSprite( Drawable drawable, int lightSize ) {
+		Bitmap sprite = Bitmap.createBitmap(lightSize, lightSize, Bitmap.Config.ARGB_8888);
+		drawable.setBounds(0, 0, lightSize, lightSize);
+		drawable.draw(new Canvas(sprite));
+		return sprite;
+	}
+	
+	private void logStartup(String stage) {
+		Log.d("GameBoard", stage + " " + (SystemClock.uptimeMillis() - mainActivity.getCreateTime()) +
+				" ms after onCreate");
 	}
 	
 	/**
@@ -161,46 +649,115 @@ public class GameBoard extends View {
 	 * @param Y The Y position of the touch.
 	 */
 	private void handleScreenTouch(int X, int Y) {
-		GameState gameState = mainActivity.getGameState();
+		// the layout is for the old board until the next draw after a size change
+		int tapped = resetScale ? -1 : layout.cellAt(X, Y);
+		if ( tapped == -1 )
+			return;
 		
-		boolean squareTapped = false;
-		int row;
-		int col = 0;
-		
-		int gameBoardSize = gameState.getGameBoardSize();
-		Rect[][] lightPos = gameState.getLightPositions();
+		pressLight(tapped);
+	}
+	
+	/**
+	 * Presses a light, redraws what it switched and ends the game once every
+	 * light is off.
+	 */
+	private void pressLight(int tapped) {
+		GameState gameState = mainActivity.getGameState();
+		int cols = gameState.getBoardCols();
 		
-		outerLoop:
-		for ( row = 0; row < gameBoardSize; row++ )
-			for ( col = 0; col < gameBoardSize; col++ )
-				if ( lightPos[row][col].contains(X, Y) ) {
-						squareTapped = true;
-						break outerLoop;
-				}
+		hideHint();
+		lightsSwitched(gameState.flipLights(tapped / cols, tapped % cols, changedCells));
+		gameState.incrementNumberOfMoves();
+		checkGameComplete();
+	}
+	
+	/**
+	 * Takes back the last move, from the menu.
+	 */
+	public void undo() {
+		if ( resetScale || !mainActivity.getGameState().canUndo() )
+			return;
+		hideHint();
+		lightsSwitched(mainActivity.getGameState().undoMove(changedCells));
+	}
+	
+	/**
+	 * Makes the last move undone again, which may finish the game.
+	 */
+	public void redo() {
+		if ( resetScale || !mainActivity.getGameState().canRedo() )
+			return;
+		hideHint();
+		lightsSwitched(mainActivity.getGameState().redoMove(changedCells));
+		checkGameComplete();
+	}
+	
+	/**
+	 * Starts the dirty area with the hint that is being taken away.
+	 */
+	private void hideHint() {
+		dirty.setEmpty();
+		if ( showHint ) {
+			GameState gameState = mainActivity.getGameState();
+			int cell = gameState.getHintCell();
+			int cols = gameState.getBoardCols();
+			if ( cell != -1 )
+				layout.getBounds(cell / cols, cell % cols, dirty);
+			showHint = false;
+		}
+	}
+	
+	/**
+	 * Redraws the lights in changedCells after they were switched.
+	 */
+	private void lightsSwitched(int changed) {
+		GameState gameState = mainActivity.getGameState();
+		int cols = gameState.getBoardCols();
 		
-		if ( squareTapped ) {
-			gameState.flipLights(row, col);
-			gameState.incrementNumberOfMoves();
-			invalidate();
+		int now = (int) SystemClock.uptimeMillis();
+		for ( int i = 0; i < changed; i++ ) {
+			int cell = changedCells[i];
+			layout.getBounds(cell / cols, cell % cols, bounds);
+			dirty.union(bounds);
+			if ( !redrawBoard && renderSurface == null )
+				fades.start(cell, now); // drawn from the next frame
+			if ( !redrawMinimap && layout.isScrollable() )
+				minimapBitmap.setPixel(cell % cols / minimapBlock, cell / cols / minimapBlock,
+						isMinimapLit(cell / cols, cell % cols) ? MINIMAP_LIT_COLOR : MINIMAP_DARK_COLOR);
 		}
+		if ( layout.isScrollable() )
+			dirty.union(minimapBounds);
 		
+		// the hint outline is drawn centered on the light's edge
+		dirty.inset(-Constants.LIGHT_SPACING, -Constants.LIGHT_SPACING);
+		invalidate(dirty);
+	}
+	
+	/**
+	 * Ends the game with the complete or high score dialog once every light is off.
+	 */
+	public void checkGameComplete() {
+		GameState gameState = mainActivity.getGameState();
 		if (gameState.gameIsComplete()) {
 			int pos;
 			if ((pos = gameState.isHighScore()) != -1) {
 				showHighScoreDialog(pos);
 			}
 			else {
-				showGameCompleteDialog();
+				// every finished game goes on the leaderboard, under the last initials
+				showGameCompleteDialog(gameState.enterScore());
 			}
 			// Log.v("GameBoard", "The game is finished");
 		}
 	}
 	
-	private void showGameCompleteDialog() {
+	private void showGameCompleteDialog(int place) {
+		GameState gameState = mainActivity.getGameState();
 		AlertDialog ad = new AlertDialog.Builder(this.getContext())
 		.setTitle(R.string.game_complete)
-		.setMessage("Moves: " + mainActivity.getGameState().getNumberOfMoves() + " (Score: " + 
-				mainActivity.getGameState().getScore() + "%)")
+		.setMessage("Moves: " + gameState.getNumberOfMoves() + " (Score: " + 
+				gameState.getScore() + "%)" +
+				(place != -1 ? "\nPlace: " + (place + 1) + " of " + gameState.getLeaderboardSize() : ""))
 		.setPositiveButton(R.string.new_game, new DialogInterface.OnClickListener() {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
@@ -224,8 +781,6 @@ public class GameBoard extends View {
 	public void showHighScoreDialog(int p) {
 		mainActivity.setHighScoresDialogOpen(true);
 		
-		final int pos = p;
-		
 		final EditText editText = new EditText(this.getContext());
 		InputFilter[] FilterArray = new InputFilter[1];
 		FilterArray[0] = new InputFilter.LengthFilter(3);
@@ -235,14 +790,14 @@ public class GameBoard extends View {
 		final AlertDialog ad = new AlertDialog.Builder(this.getContext())
 		.setTitle(R.string.game_complete)
 		.setMessage("Moves: " + mainActivity.getGameState().getNumberOfMoves() + " (Score: " + 
-				mainActivity.getGameState().getScore() + "%)\n\nNEW HIGH SCORE!")
+				mainActivity.getGameState().getScore() + "%)\n\nNEW HIGH SCORE! Place: " + (p + 1))
 		.setView(editText)
 		.setPositiveButton(R.string.new_game, new DialogInterface.OnClickListener() {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
 				String s = editText.getText().toString();
 				if ( !s.equals("") ) {
-					mainActivity.getGameState().enterHighScore(s, pos);
+					mainActivity.getGameState().enterScore(s);
 				}
 				mainActivity.getGameState().newGame(Constants.SAME_GAME);
 				invalidate();
@@ -268,7 +823,7 @@ public class GameBoard extends View {
 				if ( keyCode == KeyEvent.KEYCODE_ENTER) {
 					String s = editText.getText().toString();
 					if ( !s.equals("") ) {
-						mainActivity.getGameState().enterHighScore(s, pos);
+						mainActivity.getGameState().enterScore(s);
 					}
 					mainActivity.getGameState().newGame(Constants.SAME_GAME);
 					invalidate();
@@ -0,0 +1,159 @@
+package sohrakoff.cory.dimthelights;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class is a copy of a game at one moment, packed into a few bytes for the
+ * autosave files: the board size and lights as bits, the moves, score and game
+ * state, when it was started and finished and whether it was scored, and the
+ * moves that can be undone.
+ *
+ * The copy owns its arrays so it can be written on another thread while the game
+ * goes on.
+ *
+ * @author cory
+ *
+ */
+public class GameSnapshot {
+
+	public GameSnapshot( int rows, int cols, int gameState, int numberOfMoves, int score,
+			int minimumMoves, long puzzleSeed, long startTime, long finishTime, boolean scored,
+			long[] lightBits, int[] moveHistory ) {
+		this.rows = rows;
+		this.cols = cols;
+		this.gameState = gameState;
+		this.numberOfMoves = numberOfMoves;
+		this.score = score;
+		this.minimumMoves = minimumMoves;
+		this.puzzleSeed = puzzleSeed;
+		this.startTime = startTime;
+		this.finishTime = finishTime;
+		this.scored = scored;
+		this.lightBits = lightBits;
+		this.moveHistory = moveHistory;
+	}
+
+	/**
+	 * @return The number of bytes write() puts in a buffer.
+	 */
+	public int getSize() {
+		return 9*4 + 3*8 + 8*lightBits.length + 4*moveHistory.length;
+	}
+
+	public void write( ByteBuffer buffer ) {
+		buffer.putInt(rows).putInt(cols).putInt(gameState).putInt(numberOfMoves)
+			.putInt(score).putInt(minimumMoves).putLong(puzzleSeed)
+			.putLong(startTime).putLong(finishTime).putInt(scored ? 1 : 0);
+		buffer.putInt(lightBits.length);
+		for ( int i = 0; i < lightBits.length; i++ )
+			buffer.putLong(lightBits[i]);
+		buffer.putInt(moveHistory.length);
+		for ( int i = 0; i < moveHistory.length; i++ )
+			buffer.putInt(moveHistory[i]);
+	}
+
+	/**
+	 * Reads a snapshot written by write().
+	 *
+	 * @return The snapshot or null if the bytes do not hold one.
+	 */
+	public static GameSnapshot read( ByteBuffer buffer ) {
+		try {
+			int rows = buffer.getInt();
+			int cols = buffer.getInt();
+			int gameState = buffer.getInt();
+			int numberOfMoves = buffer.getInt();
+			int score = buffer.getInt();
+			int minimumMoves = buffer.getInt();
+			long puzzleSeed = buffer.getLong();
+			long startTime = buffer.getLong();
+			long finishTime = buffer.getLong();
+			boolean scored = buffer.getInt() != 0;
+			if ( rows < Constants.MIN_BOARD_SIZE || rows > Constants.MAX_BOARD_SIZE ||
+					cols < Constants.MIN_BOARD_SIZE || cols > Constants.MAX_BOARD_SIZE )
+				return null;
+
+			int words = buffer.getInt();
+			if ( words != new LightBoard(rows, cols).getBitsLength() )
+				return null;
+			long[] lightBits = new long[words];
+			for ( int i = 0; i < words; i++ )
+				lightBits[i] = buffer.getLong();
+
+			int moves = buffer.getInt();
+			if ( moves < 0 || moves > buffer.remaining()/4 )
+				return null;
+			int[] moveHistory = new int[moves];
+			for ( int i = 0; i < moves; i++ )
+				moveHistory[i] = buffer.getInt();
+
+			return new GameSnapshot(rows, cols, gameState, numberOfMoves, score, minimumMoves,
+					puzzleSeed, startTime, finishTime, scored, lightBits, moveHistory);
+		}
+		catch ( BufferUnderflowException e ) {
+			return null; // cut short
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getGameState() {
+		return gameState;
+	}
+
+	public int getNumberOfMoves() {
+		return numberOfMoves;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getMinimumMoves() {
+		return minimumMoves;
+	}
+
+	public long getPuzzleSeed() {
+		return puzzleSeed;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getFinishTime() {
+		return finishTime;
+	}
+
+	public boolean isScored() {
+		return scored;
+	}
+
+	public long[] getLightBits() {
+		return lightBits;
+	}
+
+	public int[] getMoveHistory() {
+		return moveHistory;
+	}
+
+	private final int rows;
+	private final int cols;
+	private final int gameState;
+	private final int numberOfMoves;
+	private final int score;
+	private final int minimumMoves;
+	private final long puzzleSeed;
+	private final long startTime; // solve time, System.currentTimeMillis()
+	private final long finishTime; // 0 until the last light is off
+	private final boolean scored; // the finished game is on the leaderboard
+	private final long[] lightBits; // LightBoard.getBits()
+	private final int[] moveHistory; // MoveHistory.toArray()
+}
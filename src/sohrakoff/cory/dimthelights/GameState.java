@@ -2,10 +2,15 @@ package sohrakoff.cory.dimthelights;
 
 import android.app.Activity;
 import android.content.SharedPreferences;
-import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
 
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * This class contains the variables shared by the several game classes.
  * 
@@ -19,116 +24,332 @@ public class GameState {
 		this.gameBoard = gameBoard;
 		
 		// initial default set up
-		lightStates = new boolean[Constants.DEFAULT_GAME][Constants.DEFAULT_GAME];
+		lightStates = new LightBoard(Constants.DEFAULT_GAME, Constants.DEFAULT_GAME);
+		hints = new HintTracker(Constants.DEFAULT_GAME, Constants.DEFAULT_GAME);
 		newGame(Constants.DEFAULT_GAME);
 		
-		SharedPreferences data = mainActivity.getPreferences(Activity.MODE_PRIVATE);
-		// hard coded high scores is ok :(
-		String scores3 = data.getString("3x3", null);
-		String scores4 = data.getString("4x4", null);
-		String scores5 = data.getString("5x5", null);
-		
-		highScores = new int[Constants.NUMBER_OF_LEVELS][Constants.NUMBER_OF_HIGH_SCORES];
-		highScorePlayers = new String[Constants.NUMBER_OF_LEVELS][Constants.NUMBER_OF_HIGH_SCORES];
-		if ( scores3 == null && scores4 == null && scores5 == null ) {
-			// Log.v("GameState", "No high scores saved");
-			// set default high scores
-			for ( int i = 0; i < Constants.NUMBER_OF_LEVELS; i++)
-				for ( int j = 0; j < Constants.NUMBER_OF_HIGH_SCORES; j++) {
-					highScores[i][j] = Constants.defaultHighScores[i][j];
-					highScorePlayers[i][j] = Constants.defaultPlayerName;
-				}
-		}
-		else // else need to load high scores
-		{
-			// Log.v("GameState", "High scores saved...retrieving");
-			String[] scores = scores3.split(":");
-			String[] names = data.getString("3x3names", null).split(":");
-			for ( int i = 0; i < scores.length; i++ ) {
-				highScores[0][i] = Integer.parseInt(scores[i]);
-				highScorePlayers[0][i] = names[i];
-			}
-			
-			scores = scores4.split(":");
-			names = data.getString("4x4names", null).split(":");
-			for ( int i = 0; i < scores.length; i++ ) {
-				highScores[1][i] = Integer.parseInt(scores[i]);
-				highScorePlayers[1][i] = names[i];
-			}
-			
-			scores = scores5.split(":");
-			names = data.getString("5x5names", null).split(":");
-			for ( int i = 0; i < scores.length; i++ ) {
-				highScores[2][i] = Integer.parseInt(scores[i]);
-				highScorePlayers[2][i] = names[i];
-			}
+		// the high scores are not needed until a game is finished or they are
+		// shown, so they are looked for then
+	}
+	
+	/**
+	 * @return The leaderboards, found the first time they are needed. Every board
+	 * size that has high scores has one, read the first time its scores are needed.
+	 */
+	private Leaderboards getLeaderboards() {
+		if ( leaderboards == null ) {
+			SharedPreferences data = mainActivity.getPreferences(Activity.MODE_PRIVATE);
+			scoreWriter = ScoreWriter.getWriter(data);
+			leaderboards = new Leaderboards(new File(mainActivity.getFilesDir(), "scores"), data, scoreWriter);
+			for ( String level : Constants.DEFAULT_LEVELS.split(":") )
+				if ( leaderboards.getLeaderboard(level) == null )
+					addLevel(level);
 		}
+		return leaderboards;
 	}
 	
+	/**
+	 * Starts a new square game.
+	 * 
+	 * @param gameBoardSize The number of rows and columns, or SAME_GAME to replay
+	 * the current puzzle.
+	 */
 	public void newGame( int gameBoardSize ) {
+		if ( gameBoardSize == Constants.SAME_GAME )
+			startGame(boardRows, boardCols, puzzleSeed);
+		else
+			newGame(gameBoardSize, gameBoardSize);
+	}
+	
+	/**
+	 * Starts a game with a new random puzzle.
+	 */
+	public void newGame( int rows, int cols ) {
+		startGame(rows, cols, random.nextLong());
+	}
+	
+	/**
+	 * Starts numbered puzzle N, the same puzzle on every device.
+	 */
+	public void newGame( int rows, int cols, long puzzleNumber ) {
+		startGame(rows, cols, PuzzleGenerator.puzzleSeed(puzzleNumber));
+		setTitle("Puzzle #" + puzzleNumber);
+	}
+	
+	/**
+	 * Starts the puzzle of the day for the current board size.
+	 */
+	public void newDailyGame() {
+		newGame(boardRows, boardCols, PuzzleGenerator.dailyPuzzleNumber(System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Starts the puzzle made from a seed, the same seed always gives the same puzzle.
+	 */
+	private void startGame( final int rows, final int cols, final long seed ) {
 		numberOfMoves = Constants.BEGINNING_NUMBER_MOVES;
+		startTime = System.currentTimeMillis();
+		finishTime = 0;
+		scored = false;
 		
 		// reset title bar
+		title = null;
 		mainActivity.setTitle(R.string.app_name);
 		
 		// clear this message if there is one
 		mainActivity.getNewGameMessage().setVisibility(View.GONE);
 		
-		if ( gameBoardSize == Constants.SAME_GAME ) {
-			; // do nothing since game will be the same
-		}
-		else if ( this.gameBoardSize != gameBoardSize ) {
-			this.gameBoardSize = gameBoardSize;
-			lightStates = new boolean[gameBoardSize][gameBoardSize];
+		if ( boardRows != rows || boardCols != cols ) {
+			boardRows = rows;
+			boardCols = cols;
+			lightStates = new LightBoard(rows, cols);
 			
-			numberOfLights = gameBoardSize*gameBoardSize;
+			numberOfLights = rows*cols;
 			
-			// need to reset scale since gameBoardSize has changed
+			// need to reset scale since board size has changed
 			gameBoard.setResetScale(true);
 		}
 		
-		// start with all lights on
-		for ( int row = 0; row < this.gameBoardSize; row++ )
-			for ( int col = 0; col < this.gameBoardSize; col++ )
-				lightStates[row][col] = true;
+		puzzleSeed = seed;
+		history.clear();
+		gameBoard.setShowHint(false);
+		
+		// the puzzle, its moves and its hints are worked out off the UI thread as
+		// big boards take a while, the board is empty until they are ready
+		currentGameState = Constants.GAME_STARTING;
+		final int request = ++puzzleRequests;
+		puzzleExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// only ever used on this thread
+				if ( generator == null || generator.getRows() != rows || generator.getCols() != cols )
+					generator = new PuzzleGenerator(rows, cols);
+				
+				final LightBoard puzzle = new LightBoard(rows, cols);
+				final int moves = generator.generate(seed, targetMoves(rows, cols), puzzle);
+				final HintTracker tracker = new HintTracker(rows, cols);
+				tracker.reset(puzzle);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						puzzleReady(request, puzzle, moves, tracker);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Starts playing a puzzle made by startGame(), unless another game was
+	 * started or restored while it was being made.
+	 */
+	private void puzzleReady( int request, LightBoard puzzle, int moves, HintTracker tracker ) {
+		if ( request != puzzleRequests )
+			return;
+		
+		lightStates = puzzle;
+		minimumMoves = moves;
+		hints = tracker;
+		startTime = System.currentTimeMillis();
+		gameBoard.setRedrawBoard(true);
+		gameBoard.invalidate();
 		
 		// New game is in play state
 		currentGameState = Constants.GAME_PLAYING;
+		autosave();
+	}
+	
+	/**
+	 * Every puzzle of a size takes exactly as many moves as turning off a board of
+	 * all lights, so the scores of every game of a size can be compared. Sizes
+	 * where that board can not be solved aim for half the lights.
+	 */
+	private static int targetMoves( int rows, int cols ) {
+		int moves = minimumMoves(rows, cols);
+		return moves > 0 ? moves : rows*cols/2;
+	}
+	
+	/**
+	 * Moves the game to the activity and view made after a configuration change.
+	 * Everything else is kept as it is, only the view lays the board out again.
+	 */
+	public void attach( DimTheLights mainActivity, GameBoard gameBoard ) {
+		this.mainActivity = mainActivity;
+		this.gameBoard = gameBoard;
+		if ( title != null )
+			mainActivity.setTitle(title);
+		gameBoard.setResetScale(true);
+	}
+	
+	/**
+	 * Sets the title bar, kept so a new activity can show it again.
+	 */
+	private void setTitle( String title ) {
+		this.title = title;
+		mainActivity.setTitle(title);
+	}
+	
+	/**
+	 * Sets where the game is saved as it is played and saves it there.
+	 */
+	public void setJournal( AutosaveJournal journal ) {
+		this.journal = journal;
+		autosave();
+	}
+	
+	/**
+	 * @return The game as it is now, for the autosave files.
+	 */
+	public GameSnapshot getSnapshot() {
+		return new GameSnapshot(boardRows, boardCols, currentGameState, numberOfMoves, score,
+				minimumMoves, puzzleSeed, startTime, finishTime, scored, lightStates.getBits(), history.toArray());
+	}
+	
+	/**
+	 * Has the whole game written to the journal, which then starts again.
+	 */
+	private void autosave() {
+		if ( journal != null ) {
+			journal.snapshot(getSnapshot());
+			journalRecords = 0;
+		}
+	}
+	
+	/**
+	 * Adds a move to the journal.
+	 */
+	private void journal( int record ) {
+		if ( journal != null ) {
+			journal.record(record);
+			journalRecords++;
+		}
+	}
+	
+	/**
+	 * Folds the journal into a new snapshot once it has JOURNAL_RECORDS moves,
+	 * called when a move has been counted.
+	 */
+	private void foldJournal() {
+		if ( journalRecords >= JOURNAL_RECORDS )
+			autosave();
+	}
+	
+	/**
+	 * Restores the game the journal saved.
+	 * 
+	 * @return false if there is no saved game.
+	 */
+	public boolean restoreJournal( AutosaveJournal journal ) {
+		GameSnapshot snapshot = journal.loadSnapshot();
+		if ( snapshot == null )
+			return false;
+		
+		boardRows = snapshot.getRows();
+		boardCols = snapshot.getCols();
+		numberOfLights = boardRows*boardCols;
+		minimumMoves = snapshot.getMinimumMoves();
+		puzzleSeed = snapshot.getPuzzleSeed();
+		startTime = snapshot.getStartTime();
+		finishTime = snapshot.getFinishTime();
+		scored = snapshot.isScored();
+		numberOfMoves = snapshot.getNumberOfMoves();
+		score = snapshot.getScore();
+		currentGameState = snapshot.getGameState();
+		lightStates = new LightBoard(boardRows, boardCols);
+		lightStates.setBits(snapshot.getLightBits());
+		history.setArray(snapshot.getMoveHistory());
+		
+		// the moves made after the snapshot, as they were made
+		int[] records = journal.loadRecords();
+		for ( int i = 0; i < records.length; i++ ) {
+			int cell;
+			if ( records[i] == AutosaveJournal.UNDO ) {
+				if ( (cell = history.undo()) == -1 )
+					break;
+				numberOfMoves--;
+			}
+			else if ( records[i] == AutosaveJournal.REDO ) {
+				if ( (cell = history.redo()) == -1 )
+					break;
+				numberOfMoves++;
+			}
+			else if ( records[i] >= 0 && records[i] < numberOfLights ) {
+				cell = records[i];
+				history.add(cell);
+				numberOfMoves++;
+			}
+			else
+				break;
+			lightStates.flip(cell / boardCols, cell % boardCols);
+		}
+		
+		if ( numberOfMoves != 0 )
+			showScore();
+		if ( !gameIsComplete() ) {
+			finishTime = 0; // the records undid the finish, the solve time goes on
+			scored = false;
+			restored();
+		}
+		else if ( currentGameState == Constants.GAME_PLAYING && !scored ) {
+			// the game never reached the leaderboard, the last light went off in a
+			// record the finish snapshot never followed or the process was stopped
+			// with the high score dialog open, so it is finished again now
+			finished();
+			restoredBoard();
+			gameBoard.checkGameComplete();
+		}
+		else
+			restored();
+		return true;
 	}
 	
 	public void saveState( Bundle outState ) {
-		outState.putInt("gameBoardSize", gameBoardSize);
+		outState.putInt("boardRows", boardRows);
+		outState.putInt("boardCols", boardCols);
 		outState.putInt("currentGameState", currentGameState);
 		outState.putInt("numberOfMoves", numberOfMoves);
 		outState.putInt("score", score);
+		outState.putInt("minimumMoves", minimumMoves);
+		outState.putLong("puzzleSeed", puzzleSeed);
+		outState.putLong("startTime", startTime);
+		outState.putLong("finishTime", finishTime);
+		outState.putBoolean("scored", scored);
 
-		boolean ar[] = new boolean[numberOfLights];
-		int i = 0;
-		for ( int row = 0; row < gameBoardSize; row++ )
-			for ( int col = 0; col < gameBoardSize; col++ ) {
-				ar[i++] = lightStates[row][col];
-			}
-		outState.putBooleanArray("lightState", ar);	
+		outState.putLongArray("lightBits", lightStates.getBits());
+		outState.putIntArray("moveHistory", history.toArray());
 	}
 	
 	public void restoreState( Bundle inState ) {
-		gameBoardSize = inState.getInt("gameBoardSize", Constants.DEFAULT_GAME);
-		numberOfLights = gameBoardSize*gameBoardSize;
+		// square games saved before any board size was allowed only have gameBoardSize
+		int gameBoardSize = inState.getInt("gameBoardSize", Constants.DEFAULT_GAME);
+		boardRows = inState.getInt("boardRows", gameBoardSize);
+		boardCols = inState.getInt("boardCols", gameBoardSize);
+		numberOfLights = boardRows*boardCols;
+		// games saved before puzzles were generated started with every light on
+		minimumMoves = inState.getInt("minimumMoves", minimumMoves(boardRows, boardCols));
+		puzzleSeed = inState.getLong("puzzleSeed");
+		// games saved before solve times have no start time and an unknown time
+		startTime = inState.getLong("startTime");
+		finishTime = inState.getLong("finishTime");
+		// games saved before this was kept had their dialog shown again from the bundle
+		scored = inState.getBoolean("scored", true);
 		numberOfMoves = inState.getInt("numberOfMoves", Constants.BEGINNING_NUMBER_MOVES);
 		score = inState.getInt("score");
-		
-		if ( numberOfMoves != 0 )
-			showScore();
-		
 		currentGameState = inState.getInt("currentGameState");
 		
+		long bits[] = inState.getLongArray("lightBits");
 		boolean ar[] = inState.getBooleanArray("lightState");
-		if ( ar != null ) {
+		if ( bits != null ) {
+			lightStates = new LightBoard(boardRows, boardCols);
+			lightStates.setBits(bits);
+		}
+		else if ( ar != null ) {
+			// state saved before the lights were packed into bits
 			int i = 0;
-			lightStates = new boolean[gameBoardSize][gameBoardSize];
-			for ( int row = 0; row < gameBoardSize; row++ )
-				for ( int col = 0; col < gameBoardSize; col++ ) {
-					lightStates[row][col] = ar[i++];
+			lightStates = new LightBoard(boardRows, boardCols);
+			for ( int row = 0; row < boardRows; row++ )
+				for ( int col = 0; col < boardCols; col++ ) {
+					lightStates.setLight(row, col, ar[i++]);
 				}
 		}
 		else { // Some sort of error
@@ -136,72 +357,199 @@ public class GameState {
 			// reset a default game
 		}
 		
+		// games saved before undo have no history
+		int moves[] = inState.getIntArray("moveHistory");
+		if ( moves != null )
+			history.setArray(moves);
+		else
+			history.clear();
+		
+		if ( numberOfMoves != 0 )
+			showScore();
+		restored();
+	}
+	
+	/**
+	 * Sets up the hints and the view for a restored game and ends it if every
+	 * light was already off.
+	 */
+	private void restored() {
+		// saved while its puzzle was being made, it is made again
+		if ( currentGameState == Constants.GAME_STARTING ) {
+			gameBoard.setResetScale(true);
+			startGame(boardRows, boardCols, puzzleSeed);
+			return;
+		}
+		restoredBoard();
+		
     	if ( currentGameState == Constants.GAME_PLAYING && gameIsComplete() &&
     			!mainActivity.isHighScoresDialogOpen()) {
+    		if ( !scored ) {
+    			// stopped before its finish dialog was answered, it is offered again
+    			gameBoard.checkGameComplete();
+    			return;
+    		}
     		setCurrentGameState(Constants.GAME_COMPLETE);
     		mainActivity.getNewGameMessage().setVisibility(View.VISIBLE);
     	}
 	}
 	
 	/**
-	 * Switches selected light and surrounding lights on or off.
+	 * Sets up the hints and the view for a restored game.
+	 */
+	private void restoredBoard() {
+		puzzleRequests++; // a puzzle still being made is not wanted now
+		hints = new HintTracker(boardRows, boardCols);
+		hints.reset(lightStates);
+		gameBoard.setResetScale(true);
+	}
+	
+	/**
+	 * Presses a light.
 	 * 
-	 * @param row The row of the tapped light.
-	 * @param col The column of the tapped light.
+	 * @param changedCells Filled with the row*cols+col cells that were switched,
+	 * room for at least five.
+	 * @return The number of cells switched.
 	 */
-	public void flipLights( int row, int col ) {
-		lightStates[row][col] = !lightStates[row][col];
-		
-		if ( col-1 >= 0 )
-			lightStates[row][col-1] = !lightStates[row][col-1];
-		
-		if ( col+1 < gameBoardSize )
-			lightStates[row][col+1] = !lightStates[row][col+1];
-		
-		if ( row - 1 >= 0 )
-			lightStates[row-1][col] = !lightStates[row-1][col];
+	public int flipLights( int row, int col, int[] changedCells ) {
+		history.add(row*boardCols + col);
+		int changed = switchLights(row, col, changedCells);
+		journal(row*boardCols + col);
+		return changed;
+	}
+	
+	/**
+	 * Takes back the last move by pressing its light again.
+	 * 
+	 * @param changedCells Filled with the cells that were switched, as in flipLights.
+	 * @return The number of cells switched, 0 if there was no move to undo.
+	 */
+	public int undoMove( int[] changedCells ) {
+		int cell = history.undo();
+		if ( cell == -1 )
+			return 0;
+		int changed = switchLights(cell / boardCols, cell % boardCols, changedCells);
+		finishTime = 0;
+		scored = false;
+		numberOfMoves--;
+		showScore();
+		journal(AutosaveJournal.UNDO);
+		foldJournal();
+		return changed;
+	}
+	
+	/**
+	 * Makes the last move that was undone again.
+	 * 
+	 * @param changedCells Filled with the cells that were switched, as in flipLights.
+	 * @return The number of cells switched, 0 if there was no move to redo.
+	 */
+	public int redoMove( int[] changedCells ) {
+		int cell = history.redo();
+		if ( cell == -1 )
+			return 0;
+		int changed = switchLights(cell / boardCols, cell % boardCols, changedCells);
+		numberOfMoves++;
+		finished();
+		showScore();
+		journal(AutosaveJournal.REDO);
+		foldJournal();
+		return changed;
+	}
+	
+	public boolean canUndo() {
+		return currentGameState == Constants.GAME_PLAYING && history.canUndo();
+	}
+	
+	public boolean canRedo() {
+		return currentGameState == Constants.GAME_PLAYING && history.canRedo();
+	}
+	
+	/**
+	 * Switches selected light and surrounding lights on or off.
+	 */
+	private int switchLights( int row, int col, int[] changedCells ) {
+		lightStates.flip(row, col);
+		hints.pressed(row, col);
 		
-		if ( row + 1 < gameBoardSize )
-			lightStates[row+1][col] = !lightStates[row+1][col];
+		int changed = 0;
+		changedCells[changed++] = row*boardCols + col;
+		if ( row > 0 )
+			changedCells[changed++] = (row-1)*boardCols + col;
+		if ( row < boardRows-1 )
+			changedCells[changed++] = (row+1)*boardCols + col;
+		if ( col > 0 )
+			changedCells[changed++] = row*boardCols + col-1;
+		if ( col < boardCols-1 )
+			changedCells[changed++] = row*boardCols + col+1;
+		return changed;
+	}
+	
+	/**
+	 * @return The row*cols+col cell of a light to press next or -1 if there is none.
+	 */
+	public int getHintCell() {
+		return hints.getHintCell();
 	}
 	
 	public boolean gameIsComplete() {
-		boolean complete = true;
-			
-		outerloop:
-		for ( int row = 0; row < gameBoardSize; row++ )
-			for ( int col = 0; col < gameBoardSize; col++ )
-				if ( lightStates[row][col] ) {
-					// if any light is lit then break out and return false
-					complete = false;
-					break outerloop;
-				}
-		
-		return complete;
+		return lightStates.isDark();
+	}
+	
+	/**
+	 * @return The fewest moves that finish the game from here, read from the
+	 * distance table when the board size has one, or -1 if it can not be finished.
+	 */
+	public int getOptimalMovesRemaining() {
+		DistanceTable table = DistanceTable.getTable(boardRows, boardCols);
+		if ( table != null )
+			return table.distance(lightStates);
+		return Solvers.getSolver(boardRows, boardCols).minimumMoves(lightStates);
+	}
+	
+	/**
+	 * Adds the fewest moves left to the title, with a hint. The next move shows
+	 * the plain score again.
+	 */
+	public void showOptimalMovesRemaining() {
+		showScore();
+		int remaining = getOptimalMovesRemaining();
+		if ( remaining != -1 )
+			setTitle(title + " Best to go: " + remaining);
 	}
 	
 	public void incrementNumberOfMoves() {
 		numberOfMoves++;
+		finished();
 		showScore();
+		foldJournal();
+	}
+	
+	/**
+	 * Stops the solve time once the last light is off.
+	 */
+	private void finished() {
+		if ( finishTime == 0 && lightStates.isDark() ) {
+			finishTime = System.currentTimeMillis();
+			autosave(); // a restored game then knows when it was finished
+		}
 	}
 	
 	private void showScore() {
-		// determine score
-		switch (gameBoardSize) {
-			case Constants.MENU_3X3:
-				score = (int)(((double) Constants.MIN_MOVES_3X3 / (double) numberOfMoves)*100);
-				break;
-			case Constants.MENU_4X4:
-				score = (int)(((double) Constants.MIN_MOVES_4X4 / (double) numberOfMoves)*100);
-				break;
-			case Constants.MENU_5X5:
-				score = (int)(((double) Constants.MIN_MOVES_5X5 / (double) numberOfMoves)*100);
-				break;	
+		// every move can be undone back to the start, where there is no score yet
+		if ( numberOfMoves == 0 ) {
+			score = 0;
+			setTitle("Moves: 0 Lights: " + lightStates.countLit());
+			return;
 		}
 		
-		String titleBar = "Moves: " + numberOfMoves + " (Score: " + score + "%)";
+		// determine score
+		score = (int)(((double) minimumMoves / (double) numberOfMoves)*100);
+		
+		String titleBar = "Moves: " + numberOfMoves + " (Score: " + score + "%) Lights: " 
+			+ lightStates.countLit();
 		// put number of moves and score in title bar
-		mainActivity.setTitle(titleBar);
+		setTitle(titleBar);
 	}
 	
 	
@@ -209,117 +557,168 @@ public class GameState {
 	// Maybe should force portrait only mode
 	
 	public String getHighScores() {
-		// some values hard coded, shitty to do but it is easier this way
-		String scores = "3x3 Game:";
-		for ( int i = 0; i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += "\n\t" + highScorePlayers[0][i] + "  (" + highScores[0][i] + " moves/" 
-			+ (int)(((double) Constants.MIN_MOVES_3X3 / (double) highScores[0][i])*100) + "%)";
-		}
-		
-		scores += "\n4x4 Game:";
-		for ( int i = 0; i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += "\n\t" +  highScorePlayers[1][i] + "  (" + highScores[1][i] + " moves/"  
-			+ (int)(((double) Constants.MIN_MOVES_4X4 / (double) highScores[1][i])*100) + "%)";
-		}
-		
-		scores += "\n5x5 Game:";
-		for ( int i = 0; i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += "\n\t" + highScorePlayers[2][i] + "  (" + highScores[2][i] + " moves/"  
-			+ (int)(((double) Constants.MIN_MOVES_5X5 / (double) highScores[2][i])*100) + "%)";
+		String scores = "";
+		for ( String level : getLeaderboards().getLevels() ) {
+			Leaderboard board = getLeaderboard(level);
+			int minMoves = targetMoves(levelRows(level), levelCols(level));
+			
+			if ( scores.length() > 0 )
+				scores += "\n";
+			scores += level + " Game:";
+			int shown = Math.min(board.size(), Constants.NUMBER_OF_HIGH_SCORES);
+			for ( int i = 0; i < shown; i++ ) {
+				int moves = board.getMoves(i);
+				scores += "\n\t" + getLeaderboards().getName(board.getNameId(i)) + "  (" + moves + " moves/" 
+				+ (int)(((double) minMoves / (double) moves)*100) + "%"
+				+ (board.getSolveMillis(i) != Leaderboard.UNKNOWN_TIME ? " " + formatTime(board.getSolveMillis(i)) : "")
+				+ ")";
+			}
+			if ( board.size() > shown )
+				scores += "\n\t" + board.size() + " games";
 		}
 		
 		return scores;
 	}
 	
-	public int isHighScore() {
-		switch (gameBoardSize) {
-			case Constants.MENU_3X3:
-				return checkHighScore(0);
-			case Constants.MENU_4X4:
-				return checkHighScore(1);
-			case Constants.MENU_5X5:
-				return checkHighScore(2);
+	private static String formatTime( long millis ) {
+		long seconds = millis / 1000;
+		return seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60;
 	}
+	
+	/**
+	 * @return The place the finished game takes in the top NUMBER_OF_HIGH_SCORES
+	 * of its level or -1 if it is not in them.
+	 */
+	public int isHighScore() {
+		String level = levelName(boardRows, boardCols);
+		Leaderboard board = getLeaderboards().getLeaderboard(level);
+		if ( board == null ) {
+			// a size with no scores yet is checked against its default scores
+			for ( int i = 0; i < Constants.NUMBER_OF_HIGH_SCORES; i++ )
+				if ( numberOfMoves <= defaultHighScore(boardRows, boardCols, i) )
+					return i;
+			return -1;
+		}
 		
-		return -1;
+		int place = board.rank(numberOfMoves, getSolveMillis());
+		return place < Constants.NUMBER_OF_HIGH_SCORES ? place : -1;
 	}
 	
-	private int checkHighScore( int level ) {
-		for ( int i = 0; i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			if ( numberOfMoves <= highScores[level][i] ) {
-				// returns where score is
-				return i;
-			}
-		}
+	/**
+	 * Adds the finished game to the leaderboard of its level.
+	 * 
+	 * @return The place the game took, 0 for the best, or -1 if it was not kept.
+	 */
+	public int enterScore( String initials ) {
+		String level = levelName(boardRows, boardCols);
+		playerName = initials;
+		int place = getLeaderboard(level).insert(numberOfMoves, getSolveMillis(),
+				System.currentTimeMillis(), getLeaderboards().intern(initials));
+		getLeaderboards().save(level);
 		
-		return -1;
+		// a restored game is not offered to the leaderboard again
+		scored = true;
+		autosave();
+		return place;
 	}
 	
-	public void enterHighScore( String initials, int pos ) {
-		int level = gameBoardSize - 3;
-		for ( int j = Constants.NUMBER_OF_HIGH_SCORES-1; j > pos; j-- ) {
-			highScores[level][j] = highScores[level][j-1];
-			highScorePlayers[level][j] = highScorePlayers[level][j-1];
-		}
-		highScorePlayers[level][pos] = initials;
-		highScores[level][pos] = numberOfMoves;
-		saveScores();
+	/**
+	 * Adds a finished game that is not a high score under the last name entered.
+	 */
+	public int enterScore() {
+		return enterScore(playerName);
 	}
 	
-	private void saveScores() {
-		SharedPreferences data = mainActivity.getPreferences(Activity.MODE_PRIVATE);
-		SharedPreferences.Editor editor = data.edit();
-		
-		String scores = "" + highScores[0][0];
-		String names = "" + highScorePlayers[0][0];
-		for ( int i = 1;  i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += ":" + highScores[0][i];
-			names += ":" + highScorePlayers[0][i];
-		}
-		editor.putString("3x3", scores);
-		editor.putString("3x3names", names);
-		
-		scores = "" + highScores[1][0];
-		names = "" + highScorePlayers[1][0];
-		for ( int i = 1;  i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += ":" + highScores[1][i];
-			names += ":" + highScorePlayers[1][i];
-		}
-		editor.putString("4x4", scores);
-		editor.putString("4x4names", names);
-		
-		scores = "" + highScores[2][0];
-		names = "" + highScorePlayers[2][0];
-		for ( int i = 1;  i < Constants.NUMBER_OF_HIGH_SCORES; i++ ) {
-			scores += ":" + highScores[2][i];
-			names += ":" + highScorePlayers[2][i];
-		}
-		editor.putString("5x5", scores);
-		editor.putString("5x5names", names);
-		
-		editor.commit();
+	/**
+	 * @return The number of games kept for the level being played.
+	 */
+	public int getLeaderboardSize() {
+		return getLeaderboard(levelName(boardRows, boardCols)).size();
+	}
+	
+	/**
+	 * @return How long the game took, or has taken so far, in milliseconds.
+	 */
+	private long getSolveMillis() {
+		return (finishTime != 0 ? finishTime : System.currentTimeMillis()) - startTime;
+	}
+	
+	/**
+	 * Waits for the high scores to be written, for when the game is paused and
+	 * may not come back.
+	 */
+	public void flushScores() {
+		if ( scoreWriter != null )
+			scoreWriter.flush();
 	}
 	
 	public void clearScores() {
-		SharedPreferences data = mainActivity.getPreferences(Activity.MODE_PRIVATE);
-		SharedPreferences.Editor editor = data.edit();
-		editor.clear();
-		editor.commit();
+		getLeaderboards().clear();
 		
 		// set default high scores
-		for ( int i = 0; i < Constants.NUMBER_OF_LEVELS; i++)
-			for ( int j = 0; j < Constants.NUMBER_OF_HIGH_SCORES; j++) {
-				highScores[i][j] = Constants.defaultHighScores[i][j];
-				highScorePlayers[i][j] = Constants.defaultPlayerName;
-			}
+		for ( String level : Constants.DEFAULT_LEVELS.split(":") )
+			addLevel(level);
+	}
+	
+	/**
+	 * @return The leaderboard of a level, with the default high scores if it has
+	 * none yet.
+	 */
+	private Leaderboard getLeaderboard( String level ) {
+		Leaderboard board = getLeaderboards().getLeaderboard(level);
+		return board != null ? board : addLevel(level);
+	}
+	
+	/**
+	 * Registers a board size with its default high scores.
+	 */
+	private Leaderboard addLevel( String level ) {
+		Leaderboard board = getLeaderboards().addLeaderboard(level);
+		int name = getLeaderboards().intern(Constants.defaultPlayerName);
+		for ( int j = 0; j < Constants.NUMBER_OF_HIGH_SCORES; j++)
+			board.insert(defaultHighScore(levelRows(level), levelCols(level), j),
+					Leaderboard.UNKNOWN_TIME, 0, name);
+		return board;
+	}
+	
+	private static String levelName( int rows, int cols ) {
+		return rows + "x" + cols;
 	}
 	
-	public void setGameBoardSize(int gameBoardSize) {
-		this.gameBoardSize = gameBoardSize;
+	private static int levelRows( String level ) {
+		return Integer.parseInt(level.substring(0, level.indexOf('x')));
+	}
+	
+	private static int levelCols( String level ) {
+		return Integer.parseInt(level.substring(level.indexOf('x') + 1));
+	}
+	
+	/**
+	 * Works out the fewest moves needed to turn off a board of the given size
+	 * that starts with every light on.
+	 */
+	private static int minimumMoves( int rows, int cols ) {
+		return Solvers.allLightsMinimumMoves(rows, cols);
+	}
+	
+	/**
+	 * Default high scores are twice the minimum number of moves for the level, one
+	 * move worse for each place down the list.
+	 */
+	private static int defaultHighScore( int rows, int cols, int place ) {
+		return 2*minimumMoves(rows, cols) + place;
+	}
+	
+	public int getMinimumMoves() {
+		return minimumMoves;
+	}
+	
+	public int getBoardRows() {
+		return boardRows;
 	}
 
-	public int getGameBoardSize() {
-		return gameBoardSize;
+	public int getBoardCols() {
+		return boardCols;
 	}
 
 	public void setNumberOfLights(int numberOfLights) {
@@ -330,19 +729,11 @@ public class GameState {
 		return numberOfLights;
 	}
 
-	public void setLightPositions(Rect[][] lightPositions) {
-		this.lightPositions = lightPositions;
-	}
-
-	public Rect[][] getLightPositions() {
-		return lightPositions;
-	}
-
-	public void setLightStates(boolean[][] lightStates) {
+	public void setLightStates(LightBoard lightStates) {
 		this.lightStates = lightStates;
 	}
 
-	public boolean[][] getLightStates() {
+	public LightBoard getLightStates() {
 		return lightStates;
 	}
 
@@ -364,21 +755,43 @@ public class GameState {
 
 	// game board variables
 	// initialize with default values
-	private int gameBoardSize = Constants.DEFAULT_GAME;
-	private int numberOfLights = gameBoardSize*gameBoardSize;
+	private int boardRows = Constants.DEFAULT_GAME;
+	private int boardCols = Constants.DEFAULT_GAME;
+	private int numberOfLights = boardRows*boardCols;
 	
-	private Rect[][] lightPositions;
-	private boolean[][] lightStates; // on or off
+	private LightBoard lightStates; // on or off
+	private HintTracker hints; // solution for the lights that are on
+	private final MoveHistory history = new MoveHistory(); // moves to undo and redo
+	
+	// the game is kept on disk as it is played, moves go in the journal after a
+	// snapshot until there are enough of them to fold into a new one
+	private static final int JOURNAL_RECORDS = 256;
+	private AutosaveJournal journal;
+	private int journalRecords;
+	private PuzzleGenerator generator; // makes the puzzles, used on puzzleExecutor only
+	private long puzzleSeed; // seed of the puzzle being played
+	private final Random random = new Random();
+	private int puzzleRequests; // counts startGame() calls so only the last puzzle is played
+	private final Handler handler = new Handler(); // runs on the UI thread
+	private static final ExecutorService puzzleExecutor = Executors.newSingleThreadExecutor();
 	
 	// game running state variables
 	private int currentGameState;
 	
 	// scoring information
 	private int numberOfMoves;
+	private int minimumMoves = minimumMoves(boardRows, boardCols);
 	private int score;
 	
-	private int[][] highScores;
-	private String[][] highScorePlayers;
+	private long startTime; // when the game was started, for its solve time
+	private long finishTime; // when the last light went off, 0 until then
+	private boolean scored; // the finished game is on the leaderboard
+	
+	private Leaderboards leaderboards;
+	private ScoreWriter scoreWriter; // writes the high scores off the UI thread
+	private String playerName = Constants.defaultPlayerName; // last initials entered
+	private String title; // null for the application name
+	
 	// variables used to access the main activity and the game's custom view
 	DimTheLights mainActivity;
 	GameBoard gameBoard;
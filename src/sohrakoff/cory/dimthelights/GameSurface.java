@@ -0,0 +1,229 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.R.color;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * This class draws the game board on its own thread through a SurfaceView, so a
+ * big board never holds up touches and dialogs on the UI thread. It sits under
+ * the GameBoard, which still handles input and keeps the game state, and only
+ * ever sees snapshots of the board that GameBoard publishes.
+ *
+ * Snapshots are handed over with a triple buffer. The UI thread fills the back
+ * snapshot and swaps it with the ready one, the render thread swaps the ready
+ * one with the front snapshot it draws. Each swap is a single atomic exchange so
+ * neither thread ever waits on the other for the board.
+ *
+ * Taps are still pressed on the UI thread, the game state is not shared with the
+ * render thread. The minimap and the light fades are only drawn by GameBoard, a
+ * board drawn here has neither.
+ *
+ * @author cory
+ *
+ */
+public class GameSurface extends SurfaceView implements SurfaceHolder.Callback, Runnable {
+
+	// the ready index has this bit set when it holds a snapshot not yet drawn
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+
+	public GameSurface(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		getHolder().addCallback(this);
+
+		for ( int i = 0; i < snapshots.length; i++ )
+			snapshots[i] = new Snapshot();
+
+		// the same background GameBoard clears to
+		backgroundColor = context.getResources().getColor(color.background_dark);
+
+		hintPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		hintPaint.setColor(Color.YELLOW);
+		hintPaint.setStyle(Paint.Style.STROKE);
+		hintPaint.setStrokeWidth(Constants.LIGHT_SPACING);
+	}
+
+	/**
+	 * Hands the board to the render thread, called from the UI thread only.
+	 *
+	 * @param playing false to draw an empty board.
+	 * @param hintCell The light to outline or -1.
+	 */
+	public void publish(boolean playing, LightBoard lights, BoardLayout layout, int hintCell,
+			Bitmap onSprite, Bitmap offSprite) {
+		Snapshot snapshot = snapshots[back];
+		snapshot.set(playing, lights, layout, hintCell, onSprite, offSprite);
+		back = ready.getAndSet(back | FRESH) & INDEX;
+		wake();
+	}
+
+	private void wake() {
+		synchronized ( wakeup ) {
+			wakeup.notify();
+		}
+	}
+
+	@Override
+	public void surfaceCreated(SurfaceHolder holder) {
+		running = true;
+		redraw = true;
+		renderThread = new Thread(this, "GameSurface render");
+		renderThread.start();
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		redraw = true;
+		wake();
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		// the surface can not be drawn on once this returns
+		running = false;
+		wake();
+		try {
+			renderThread.join();
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		renderThread = null;
+	}
+
+	/**
+	 * Draws a frame every time a new snapshot is published or the surface changes.
+	 */
+	@Override
+	public void run() {
+		SurfaceHolder holder = getHolder();
+		while ( running ) {
+			synchronized ( wakeup ) {
+				while ( running && !redraw && (ready.get() & FRESH) == 0 ) {
+					try {
+						wakeup.wait();
+					}
+					catch ( InterruptedException e ) {
+						return;
+					}
+				}
+			}
+			if ( !running )
+				break;
+
+			redraw = false;
+			if ( (ready.get() & FRESH) != 0 )
+				front = ready.getAndSet(front) & INDEX;
+
+			Canvas canvas = holder.lockCanvas();
+			if ( canvas == null )
+				continue; // surface went away
+			try {
+				draw(canvas, snapshots[front]);
+			}
+			finally {
+				holder.unlockCanvasAndPost(canvas);
+			}
+		}
+	}
+
+	/**
+	 * Draws the lights of a snapshot that are in the view.
+	 */
+	private void draw(Canvas canvas, Snapshot snapshot) {
+		canvas.drawColor(backgroundColor);
+		if ( !snapshot.playing || snapshot.onSprite == null )
+			return;
+
+		long[] bits = snapshot.bits;
+		int wordsPerRow = snapshot.wordsPerRow;
+		for ( int row = snapshot.firstRow; row <= snapshot.lastRow; row++ ) {
+			int top = snapshot.top + row*snapshot.pitch;
+			int start = row*wordsPerRow;
+			for ( int col = snapshot.firstCol; col <= snapshot.lastCol; col++ ) {
+				boolean lit = (bits[start + (col >>> 6)] & (1L << col)) != 0;
+				canvas.drawBitmap(lit ? snapshot.onSprite : snapshot.offSprite,
+						snapshot.left + col*snapshot.pitch, top, null);
+			}
+		}
+
+		if ( snapshot.hintCell != -1 ) {
+			int left = snapshot.left + (snapshot.hintCell % snapshot.cols)*snapshot.pitch;
+			int top = snapshot.top + (snapshot.hintCell / snapshot.cols)*snapshot.pitch;
+			canvas.drawRect(left, top, left + snapshot.lightSize, top + snapshot.lightSize, hintPaint);
+		}
+	}
+
+	/**
+	 * Everything the render thread needs to draw a frame, copied from the game so
+	 * the game can change while the frame is drawn.
+	 */
+	private static class Snapshot {
+
+		void set(boolean playing, LightBoard lights, BoardLayout layout, int hintCell,
+				Bitmap onSprite, Bitmap offSprite) {
+			this.playing = playing;
+			this.hintCell = hintCell;
+			this.onSprite = onSprite;
+			this.offSprite = offSprite;
+
+			cols = lights.getCols();
+			wordsPerRow = lights.getWordsPerRow();
+			int words = lights.getRows()*wordsPerRow;
+			if ( bits == null || bits.length < words )
+				bits = new long[words]; // only when the board grows
+			lights.getRowVector(bits);
+
+			left = layout.getLightLeft(0);
+			top = layout.getLightTop(0);
+			lightSize = layout.getLightSize();
+			pitch = lightSize + layout.getSpacing();
+			firstRow = layout.getFirstVisibleRow();
+			lastRow = layout.getLastVisibleRow();
+			firstCol = layout.getFirstVisibleCol();
+			lastCol = layout.getLastVisibleCol();
+		}
+
+		boolean playing;
+		int hintCell;
+		Bitmap onSprite;
+		Bitmap offSprite;
+
+		// lights in LightBoard.getRowVector() layout
+		int cols;
+		int wordsPerRow;
+		long[] bits;
+
+		// where the lights go and which of them are in the view
+		int left;
+		int top;
+		int lightSize;
+		int pitch;
+		int firstRow;
+		int lastRow;
+		int firstCol;
+		int lastCol;
+	}
+
+	private final Snapshot[] snapshots = new Snapshot[3];
+	private int back = 0; // filled by the UI thread
+	private final AtomicInteger ready = new AtomicInteger(1);
+	private int front = 2; // drawn by the render thread
+
+	private final Object wakeup = new Object();
+	private volatile boolean running;
+	private volatile boolean redraw; // draw the front snapshot again
+	private Thread renderThread;
+
+	private Paint hintPaint;
+	private final int backgroundColor;
+}
@@ -0,0 +1,61 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This class keeps a solution for the board in play so a hint can be given at
+ * any time without solving the board again.
+ *
+ * Presses cancel out in pairs and the order does not matter, so after the
+ * player presses a light the remaining solution is the old solution with that
+ * light switched in or out. The board only needs a full solve when a new game
+ * starts or a saved game is restored.
+ *
+ * @author cory
+ *
+ */
+public class HintTracker {
+
+	public HintTracker( int rows, int cols ) {
+		solver = Solvers.getSolver(rows, cols);
+		presses = new LightBoard(rows, cols);
+	}
+
+	/**
+	 * Solves the board from scratch.
+	 *
+	 * @return false if the board can not be solved, there will be no hints.
+	 */
+	public boolean reset( LightBoard lights ) {
+		solvable = solver.solve(lights, presses);
+		return solvable;
+	}
+
+	/**
+	 * Updates the solution after the player pressed a light.
+	 */
+	public void pressed( int row, int col ) {
+		presses.toggleLight(row, col);
+	}
+
+	/**
+	 * @return The cell (row*cols+col) of a light that should be pressed next or
+	 * -1 if there is nothing left to press.
+	 */
+	public int getHintCell() {
+		if ( !solvable )
+			return -1;
+		return presses.firstLit();
+	}
+
+	/**
+	 * @return The number of presses left in the tracked solution.
+	 */
+	public int getRemainingPresses() {
+		return presses.countLit();
+	}
+
+	private final BoardSolver solver;
+	private boolean solvable;
+
+	// the lights that still need to be pressed
+	private final LightBoard presses;
+}
@@ -0,0 +1,209 @@
+package sohrakoff.cory.dimthelights;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds the finished games of one level, best first. Entries are kept
+ * in parallel primitive arrays sorted by a single long key, the moves in the high
+ * half and the solve time in the low half, so a rank is a binary search and an
+ * insert is that search plus one array copy.
+ *
+ * Player names are ids from the Leaderboards name table, so a name that has
+ * thousands of entries is one String.
+ *
+ * @author cory
+ *
+ */
+public class Leaderboard {
+
+	// most games kept for a level, the worst are dropped after this
+	public static final int MAX_ENTRIES = 10000;
+
+	// solve time of games recorded before solve times were kept
+	public static final long UNKNOWN_TIME = 0xffffffffL;
+
+	private static final int FILE_MAGIC = 0x44544c42; // "DTLB"
+	private static final int FILE_VERSION = 1;
+	private static final int ENTRY_BYTES = 8 + 8 + 4;
+
+	public Leaderboard() {
+		keys = new long[16];
+		timestamps = new long[16];
+		nameIds = new int[16];
+	}
+
+	private static long key( int moves, long solveMillis ) {
+		return ((long) moves << 32) | Math.min(Math.max(solveMillis, 0), UNKNOWN_TIME);
+	}
+
+	/**
+	 * @return The place a game would take, 0 for the best. A game ties ahead of
+	 * the games it equals, as a new high score always has.
+	 */
+	public int rank( int moves, long solveMillis ) {
+		long key = key(moves, solveMillis);
+		int low = 0;
+		int high = count;
+		while ( low < high ) {
+			int mid = (low + high) >>> 1;
+			if ( keys[mid] < key )
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Adds a game at its place.
+	 *
+	 * @return The place or -1 if the leaderboard is full of better games.
+	 */
+	public int insert( int moves, long solveMillis, long timestamp, int nameId ) {
+		int place = rank(moves, solveMillis);
+		if ( place >= MAX_ENTRIES )
+			return -1;
+
+		if ( count == keys.length && count < MAX_ENTRIES )
+			grow();
+		int moved = Math.min(count, MAX_ENTRIES - 1) - place;
+		System.arraycopy(keys, place, keys, place + 1, moved);
+		System.arraycopy(timestamps, place, timestamps, place + 1, moved);
+		System.arraycopy(nameIds, place, nameIds, place + 1, moved);
+		keys[place] = key(moves, solveMillis);
+		timestamps[place] = timestamp;
+		nameIds[place] = nameId;
+		count = Math.min(count + 1, MAX_ENTRIES);
+		return place;
+	}
+
+	private void grow() {
+		int capacity = Math.min(keys.length*2, MAX_ENTRIES);
+		long[] biggerKeys = new long[capacity];
+		long[] biggerTimestamps = new long[capacity];
+		int[] biggerNames = new int[capacity];
+		System.arraycopy(keys, 0, biggerKeys, 0, count);
+		System.arraycopy(timestamps, 0, biggerTimestamps, 0, count);
+		System.arraycopy(nameIds, 0, biggerNames, 0, count);
+		keys = biggerKeys;
+		timestamps = biggerTimestamps;
+		nameIds = biggerNames;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getMoves( int place ) {
+		return (int) (keys[place] >>> 32);
+	}
+
+	/**
+	 * @return The solve time in milliseconds or UNKNOWN_TIME.
+	 */
+	public long getSolveMillis( int place ) {
+		return keys[place] & UNKNOWN_TIME;
+	}
+
+	/**
+	 * @return When the game was finished, in milliseconds since 1970 or 0 if not known.
+	 */
+	public long getTimestamp( int place ) {
+		return timestamps[place];
+	}
+
+	public int getNameId( int place ) {
+		return nameIds[place];
+	}
+
+	/**
+	 * Packs the leaderboard for its file, with a table of the names it uses so the
+	 * ids of this run are not kept.
+	 */
+	public byte[] toBytes( Leaderboards names ) {
+		int[] local = new int[names.getNameCount()];
+		int[] used = new int[Math.min(count, local.length)];
+		int nameCount = 0;
+		int nameBytes = 0;
+		for ( int i = 0; i < count; i++ ) {
+			int id = nameIds[i];
+			if ( local[id] == 0 ) {
+				used[nameCount++] = id;
+				local[id] = nameCount; // one more than the index in the file
+				nameBytes += 2 + utf8(names.getName(id)).length;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(16 + nameBytes + count*ENTRY_BYTES);
+		buffer.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(count).putInt(nameCount);
+		for ( int i = 0; i < nameCount; i++ ) {
+			byte[] name = utf8(names.getName(used[i]));
+			buffer.putShort((short) name.length).put(name);
+		}
+		for ( int i = 0; i < count; i++ )
+			buffer.putLong(keys[i]).putLong(timestamps[i]).putInt(local[nameIds[i]] - 1);
+		return buffer.array();
+	}
+
+	/**
+	 * Reads a leaderboard packed by toBytes(), adding its names to the name table.
+	 *
+	 * @return The leaderboard or null if the bytes do not hold one.
+	 */
+	public static Leaderboard read( ByteBuffer buffer, Leaderboards names ) {
+		try {
+			if ( buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION )
+				return null;
+			int count = buffer.getInt();
+			int nameCount = buffer.getInt();
+			if ( count < 0 || count > MAX_ENTRIES || nameCount < 0 || nameCount > count )
+				return null;
+
+			int[] ids = new int[nameCount];
+			for ( int i = 0; i < nameCount; i++ ) {
+				byte[] name = new byte[buffer.getShort() & 0xffff];
+				buffer.get(name);
+				ids[i] = names.intern(new String(name, "UTF-8"));
+			}
+
+			Leaderboard board = new Leaderboard();
+			while ( board.keys.length < count )
+				board.grow();
+			for ( int i = 0; i < count; i++ ) {
+				long key = buffer.getLong();
+				long timestamp = buffer.getLong();
+				int name = buffer.getInt();
+				if ( name < 0 || name >= nameCount || (i > 0 && key < board.keys[i-1]) )
+					return null;
+				board.keys[i] = key;
+				board.timestamps[i] = timestamp;
+				board.nameIds[i] = ids[name];
+			}
+			board.count = count;
+			return board;
+		}
+		catch ( BufferUnderflowException e ) {
+			return null; // cut short
+		}
+		catch ( UnsupportedEncodingException e ) {
+			return null; // every platform has UTF-8
+		}
+	}
+
+	private static byte[] utf8( String name ) {
+		try {
+			return name.getBytes("UTF-8");
+		}
+		catch ( UnsupportedEncodingException e ) {
+			return name.getBytes();
+		}
+	}
+
+	// sorted best first, moves << 32 | solve time
+	private long[] keys;
+	private long[] timestamps;
+	private int[] nameIds;
+	private int count;
+}
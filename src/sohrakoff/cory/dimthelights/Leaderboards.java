@@ -0,0 +1,187 @@
+package sohrakoff.cory.dimthelights;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.SharedPreferences;
+
+/**
+ * This class keeps a leaderboard for every level, a board size such as "5x5" or
+ * a board size and a way of playing it. Each level is its own file and is
+ * only read the first time its scores are needed, so starting the game reads
+ * no scores at all.
+ *
+ * Levels saved before there were leaderboards are in the preferences, as
+ * colon separated moves and names under the level's name, and are read from
+ * there until the level is saved again.
+ *
+ * The names of every level share one table, so each player's name is held once.
+ *
+ * @author cory
+ *
+ */
+public class Leaderboards {
+
+	private static final String FILE_SUFFIX = ".scores";
+
+	public Leaderboards( File directory, SharedPreferences preferences, ScoreWriter writer ) {
+		this.directory = directory;
+		this.preferences = preferences;
+		this.writer = writer;
+
+		// preferences from before there were leaderboards may not list the default levels
+		for ( String level : preferences.getString("levels", Constants.DEFAULT_LEVELS).split(":") )
+			addLevel(level);
+		String[] files = directory.list();
+		if ( files != null )
+			for ( String file : files )
+				if ( file.endsWith(FILE_SUFFIX) )
+					addLevel(file.substring(0, file.length() - FILE_SUFFIX.length()));
+	}
+
+	private void addLevel( String level ) {
+		if ( level.length() > 0 && !levels.contains(level) )
+			levels.add(level);
+	}
+
+	/**
+	 * @return Every level with scores.
+	 */
+	public List<String> getLevels() {
+		return levels;
+	}
+
+	/**
+	 * @return The leaderboard of a level, read the first time it is asked for, or
+	 * null if the level has no scores.
+	 */
+	public Leaderboard getLeaderboard( String level ) {
+		Leaderboard board = loaded.get(level);
+		if ( board == null && levels.contains(level) ) {
+			board = load(level);
+			if ( board != null )
+				loaded.put(level, board);
+		}
+		return board;
+	}
+
+	/**
+	 * Starts an empty leaderboard for a level.
+	 */
+	public Leaderboard addLeaderboard( String level ) {
+		Leaderboard board = new Leaderboard();
+		addLevel(level);
+		loaded.put(level, board);
+		return board;
+	}
+
+	private Leaderboard load( String level ) {
+		File file = getFile(level);
+		if ( file.exists() ) {
+			RandomAccessFile in = null;
+			try {
+				in = new RandomAccessFile(file, "r");
+				FileChannel channel = in.getChannel();
+				ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return Leaderboard.read(map, this);
+			}
+			catch ( IOException e ) {
+				return null; // unreadable, the level starts again
+			}
+			finally {
+				// the mapping stays valid after the file is closed
+				close(in);
+			}
+		}
+
+		// saved before there were leaderboards
+		String scores = preferences.getString(level, null);
+		String names = preferences.getString(level + "names", null);
+		if ( scores == null || names == null )
+			return null;
+		String[] scoreList = scores.split(":");
+		String[] nameList = names.split(":");
+		Leaderboard board = new Leaderboard();
+		for ( int i = 0; i < scoreList.length && i < nameList.length; i++ ) {
+			try {
+				board.insert(Integer.parseInt(scoreList[i]), Leaderboard.UNKNOWN_TIME, 0, intern(nameList[i]));
+			}
+			catch ( NumberFormatException e ) {
+				; // skip it
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Has a level's leaderboard written after it changed.
+	 */
+	public void save( String level ) {
+		Leaderboard board = loaded.get(level);
+		if ( board != null )
+			writer.save(getFile(level), board.toBytes(this));
+	}
+
+	/**
+	 * Deletes every score.
+	 */
+	public void clear() {
+		for ( String level : levels )
+			writer.save(getFile(level), null);
+		writer.clearPreferences();
+		levels.clear();
+		loaded.clear();
+	}
+
+	private static void close( RandomAccessFile file ) {
+		if ( file != null ) {
+			try {
+				file.close();
+			}
+			catch ( IOException e ) {
+				; // nothing else to do
+			}
+		}
+	}
+
+	private File getFile( String level ) {
+		return new File(directory, level + FILE_SUFFIX);
+	}
+
+	/**
+	 * @return The id of a name in the name table, added if it is new.
+	 */
+	public int intern( String name ) {
+		Integer id = nameIds.get(name);
+		if ( id == null ) {
+			id = names.size();
+			names.add(name);
+			nameIds.put(name, id);
+		}
+		return id;
+	}
+
+	public String getName( int id ) {
+		return names.get(id);
+	}
+
+	public int getNameCount() {
+		return names.size();
+	}
+
+	private final File directory;
+	private final SharedPreferences preferences;
+	private final ScoreWriter writer;
+
+	private final ArrayList<String> levels = new ArrayList<String>();
+	private final HashMap<String, Leaderboard> loaded = new HashMap<String, Leaderboard>();
+
+	private final ArrayList<String> names = new ArrayList<String>();
+	private final HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+}
@@ -0,0 +1,431 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This class holds the on/off state of every light on the game board packed into
+ * bits. Boards with 64 lights or less (up to 8x8) are kept in a single long where
+ * light (row, col) is bit row*cols+col. Bigger boards are kept as row bitsets of
+ * wordsPerRow longs each, light (row, col) being bit col%64 of word
+ * row*wordsPerRow+col/64. A 256x256 board takes 8 KB this way.
+ *
+ * The lights switched by tapping a light are worked out once when the board is
+ * created, so tapping a light is an xor with a precomputed mask instead of a
+ * series of bounds checked array writes.
+ *
+ * The number of lights on is kept for the board, every row and every block of
+ * BLOCK_SIZE x BLOCK_SIZE lights. Each switched light adjusts the counts by one,
+ * so checking for a finished board or showing progress never scans the board.
+ *
+ * @author cory
+ *
+ */
+public class LightBoard {
+
+	// largest number of columns supported
+	public static final int MAX_COLUMNS = 256;
+	
+	// width and height of the regions lit lights are counted for, one byte of a row word
+	public static final int BLOCK_SIZE = 8;
+
+	public LightBoard( int rows, int cols ) {
+		if ( rows < 1 || cols < 1 || cols > MAX_COLUMNS )
+			throw new IllegalArgumentException("Unsupported board size " + rows + "x" + cols);
+
+		this.rows = rows;
+		this.cols = cols;
+		wordsPerRow = (cols + 63) >>> 6;
+
+		packed = rows*cols <= 64;
+		
+		rowCounts = new int[rows];
+		blockRows = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blockCols = (cols + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blockCounts = new int[blockRows*blockCols];
+		lastWordMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+
+		if ( packed ) {
+			fullMask = rows*cols == 64 ? -1L : (1L << rows*cols) - 1;
+
+			// mask for every light is the light itself plus its neighbors
+			cellMasks = new long[rows*cols];
+			for ( int row = 0; row < rows; row++ )
+				for ( int col = 0; col < cols; col++ ) {
+					long mask = bit(row, col);
+					if ( col-1 >= 0 )
+						mask |= bit(row, col-1);
+					if ( col+1 < cols )
+						mask |= bit(row, col+1);
+					if ( row-1 >= 0 )
+						mask |= bit(row-1, col);
+					if ( row+1 < rows )
+						mask |= bit(row+1, col);
+					cellMasks[row*cols + col] = mask;
+				}
+		}
+		else {
+			fullMask = 0;
+			rowBits = new long[rows*wordsPerRow];
+
+			// row mask is the tapped light plus its left and right neighbors and
+			// can spill into the next word, the rows above and below only have the
+			// tapped column switched
+			rowMaskWords = new int[cols];
+			rowMasks = new long[cols];
+			rowSpillMasks = new long[cols];
+			for ( int col = 0; col < cols; col++ ) {
+				int first = Math.max(col-1, 0);
+				int last = Math.min(col+1, cols-1);
+				rowMaskWords[col] = first >>> 6;
+				for ( int c = first; c <= last; c++ ) {
+					if ( c >>> 6 == first >>> 6 )
+						rowMasks[col] |= 1L << c;
+					else
+						rowSpillMasks[col] |= 1L << c;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Switches selected light and surrounding lights on or off.
+	 *
+	 * @param row The row of the tapped light.
+	 * @param col The column of the tapped light.
+	 */
+	public void flip( int row, int col ) {
+		if ( packed ) {
+			cells ^= cellMasks[row*cols + col];
+		}
+		else {
+			int word = row*wordsPerRow + rowMaskWords[col];
+			rowBits[word] ^= rowMasks[col];
+			if ( rowSpillMasks[col] != 0 )
+				rowBits[word+1] ^= rowSpillMasks[col];
+
+			int colWord = row*wordsPerRow + (col >>> 6);
+			long colBit = 1L << col;
+			if ( row-1 >= 0 )
+				rowBits[colWord - wordsPerRow] ^= colBit;
+			if ( row+1 < rows )
+				rowBits[colWord + wordsPerRow] ^= colBit;
+		}
+		
+		// adjust the counts for each switched light
+		switched(row, col);
+		if ( col-1 >= 0 )
+			switched(row, col-1);
+		if ( col+1 < cols )
+			switched(row, col+1);
+		if ( row-1 >= 0 )
+			switched(row-1, col);
+		if ( row+1 < rows )
+			switched(row+1, col);
+	}
+	
+	/**
+	 * Adjusts the lit counts after a single light has been switched.
+	 */
+	private void switched( int row, int col ) {
+		int delta = isLit(row, col) ? 1 : -1;
+		litCount += delta;
+		rowCounts[row] += delta;
+		blockCounts[(row / BLOCK_SIZE)*blockCols + col / BLOCK_SIZE] += delta;
+	}
+	
+	/**
+	 * Counts every light again after the whole board has been loaded. Blocks are
+	 * a byte wide so each block of a row word is counted with one popcount.
+	 */
+	private void recount() {
+		litCount = 0;
+		for ( int b = 0; b < blockCounts.length; b++ )
+			blockCounts[b] = 0;
+		
+		for ( int row = 0; row < rows; row++ ) {
+			int count = 0;
+			int blockStart = (row / BLOCK_SIZE)*blockCols;
+			for ( int w = 0; w < wordsPerRow; w++ ) {
+				long bits;
+				if ( packed )
+					bits = (cells >>> row*cols) & lastWordMask;
+				else
+					bits = rowBits[row*wordsPerRow + w];
+				count += Long.bitCount(bits);
+				
+				for ( int blockCol = w*8; bits != 0; blockCol++ ) {
+					blockCounts[blockStart + blockCol] += Long.bitCount(bits & 0xff);
+					bits >>>= BLOCK_SIZE;
+				}
+			}
+			rowCounts[row] = count;
+			litCount += count;
+		}
+	}
+
+	public boolean isLit( int row, int col ) {
+		if ( packed )
+			return (cells & bit(row, col)) != 0;
+		else
+			return (rowBits[row*wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	/**
+	 * Turns a single light on or off without switching its neighbors.
+	 */
+	public void setLight( int row, int col, boolean on ) {
+		if ( isLit(row, col) != on )
+			toggleLight(row, col);
+	}
+
+	/**
+	 * Switches a single light without switching its neighbors.
+	 */
+	public void toggleLight( int row, int col ) {
+		if ( packed )
+			cells ^= bit(row, col);
+		else
+			rowBits[row*wordsPerRow + (col >>> 6)] ^= 1L << col;
+		switched(row, col);
+	}
+
+	/**
+	 * @return The first light that is on as row*cols+col, or -1 if all are off.
+	 */
+	public int firstLit() {
+		if ( packed )
+			return cells == 0 ? -1 : Long.numberOfTrailingZeros(cells);
+
+		for ( int w = 0; w < rowBits.length; w++ )
+			if ( rowBits[w] != 0 ) {
+				int row = w / wordsPerRow;
+				int col = ((w % wordsPerRow) << 6) + Long.numberOfTrailingZeros(rowBits[w]);
+				return row*cols + col;
+			}
+		return -1;
+	}
+
+	/**
+	 * @return The number of lights that are on.
+	 */
+	public int countLit() {
+		return litCount;
+	}
+
+	/**
+	 * @return The number of lights that are on in a row.
+	 */
+	public int countLitInRow( int row ) {
+		return rowCounts[row];
+	}
+
+	/**
+	 * @return The number of lights that are on in a block of BLOCK_SIZE x BLOCK_SIZE
+	 * lights, blocks on the right and bottom edges may be smaller.
+	 */
+	public int countLitInBlock( int blockRow, int blockCol ) {
+		return blockCounts[blockRow*blockCols + blockCol];
+	}
+
+	/**
+	 * @return true if every light on the board is off.
+	 */
+	public boolean isDark() {
+		return litCount == 0;
+	}
+
+	public void setAllLights( boolean on ) {
+		if ( packed ) {
+			cells = on ? fullMask : 0;
+		}
+		else {
+			for ( int w = 0; w < rowBits.length; w++ )
+				rowBits[w] = on ? rowWordMask(w % wordsPerRow) : 0;
+		}
+		recount();
+	}
+
+	/**
+	 * Returns a copy of the board bits. Packed boards return a single element,
+	 * other boards return their row words.
+	 */
+	public long[] getBits() {
+		long[] bits = new long[getBitsLength()];
+		getBits(bits, 0);
+		return bits;
+	}
+
+	/**
+	 * Copies the board bits returned by getBits() into an existing array.
+	 */
+	public void getBits( long[] bits, int offset ) {
+		if ( packed )
+			bits[offset] = cells;
+		else
+			System.arraycopy(rowBits, 0, bits, offset, rowBits.length);
+	}
+
+	/**
+	 * @return The number of longs returned by getBits().
+	 */
+	public int getBitsLength() {
+		return packed ? 1 : rowBits.length;
+	}
+
+	/**
+	 * Loads board bits that were returned by getBits() for a board of the same size.
+	 */
+	public void setBits( long[] bits ) {
+		if ( packed ) {
+			cells = bits[0] & fullMask;
+		}
+		else {
+			for ( int w = 0; w < rowBits.length; w++ )
+				rowBits[w] = bits[w] & rowWordMask(w % wordsPerRow);
+		}
+		recount();
+	}
+
+	/**
+	 * Copies the board into a vector with light (row, col) as bit row*cols+col,
+	 * which is the layout used by the elimination solver.
+	 *
+	 * @param vector Must hold at least (rows*cols+63)/64 longs.
+	 */
+	public void getCellVector( long[] vector ) {
+		if ( packed ) {
+			vector[0] = cells;
+			return;
+		}
+
+		int words = (rows*cols + 63) >>> 6;
+		for ( int w = 0; w < words; w++ )
+			vector[w] = 0;
+		for ( int row = 0; row < rows; row++ )
+			for ( int w = 0; w < wordsPerRow; w++ ) {
+				long bits = rowBits[row*wordsPerRow + w];
+				if ( bits == 0 )
+					continue;
+				int start = row*cols + (w << 6);
+				int shift = start & 63;
+				vector[start >>> 6] |= bits << shift;
+				if ( shift != 0 && (start >>> 6) + 1 < words )
+					vector[(start >>> 6) + 1] |= bits >>> (64 - shift);
+			}
+	}
+
+	/**
+	 * Loads the board from a vector in the layout written by getCellVector().
+	 */
+	public void setCellVector( long[] vector ) {
+		if ( packed ) {
+			cells = vector[0] & fullMask;
+			recount();
+			return;
+		}
+
+		int words = (rows*cols + 63) >>> 6;
+		for ( int row = 0; row < rows; row++ )
+			for ( int w = 0; w < wordsPerRow; w++ ) {
+				int start = row*cols + (w << 6);
+				int shift = start & 63;
+				long bits = vector[start >>> 6] >>> shift;
+				if ( shift != 0 && (start >>> 6) + 1 < words )
+					bits |= vector[(start >>> 6) + 1] << (64 - shift);
+				rowBits[row*wordsPerRow + w] = bits & rowWordMask(w);
+			}
+		recount();
+	}
+
+	/**
+	 * Copies the board into a vector of row bitsets with wordsPerRow longs per row,
+	 * light (row, col) being bit col%64 of vector[row*wordsPerRow+col/64]. This is
+	 * the layout used for light chasing.
+	 */
+	public void getRowVector( long[] vector ) {
+		if ( packed ) {
+			for ( int row = 0; row < rows; row++ )
+				vector[row] = (cells >>> row*cols) & lastWordMask;
+		}
+		else {
+			System.arraycopy(rowBits, 0, vector, 0, rowBits.length);
+		}
+	}
+
+	/**
+	 * Loads the board from a vector in the layout written by getRowVector().
+	 */
+	public void setRowVector( long[] vector ) {
+		if ( packed ) {
+			cells = 0;
+			for ( int row = 0; row < rows; row++ )
+				cells |= (vector[row] & lastWordMask) << row*cols;
+		}
+		else {
+			for ( int w = 0; w < rowBits.length; w++ )
+				rowBits[w] = vector[w] & rowWordMask(w % wordsPerRow);
+		}
+		recount();
+	}
+
+	private long bit( int row, int col ) {
+		return 1L << (row*cols + col);
+	}
+
+	private long rowWordMask( int word ) {
+		return word == wordsPerRow-1 ? lastWordMask : -1L;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	public int getBlockCols() {
+		return blockCols;
+	}
+
+	public boolean isPacked() {
+		return packed;
+	}
+
+	/**
+	 * @return all lights of a packed board, bit row*cols+col is light (row, col).
+	 */
+	public long getCells() {
+		return cells;
+	}
+
+	private final int rows;
+	private final int cols;
+	private final int wordsPerRow;
+	private final boolean packed;
+	private final long fullMask;
+	private final long lastWordMask; // columns used in the last word of a row
+
+	// packed board state and the switch mask for each light
+	private long cells;
+	private long[] cellMasks;
+
+	// row board state and the switch masks for each column of a row
+	private long[] rowBits;
+	private int[] rowMaskWords;
+	private long[] rowMasks;
+	private long[] rowSpillMasks;
+
+	// lights that are on for the board, each row and each block
+	private int litCount;
+	private final int[] rowCounts;
+	private final int blockRows;
+	private final int blockCols;
+	private final int[] blockCounts;
+}
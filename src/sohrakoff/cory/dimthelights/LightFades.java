@@ -0,0 +1,114 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps track of the lights that are fading between on and off after
+ * a press. Everything is held in int arrays sized once for the board, so the
+ * frames of a fade create no objects however fast the lights are pressed.
+ *
+ * Fading lights are kept packed at the front of the arrays so a frame only
+ * looks at the lights that are moving, and each light knows its place in them so
+ * pressing it again mid fade turns the fade around instead of starting over.
+ *
+ * Times are uptime milliseconds cut to an int, only differences are used so
+ * they may wrap.
+ *
+ * @author cory
+ *
+ */
+public class LightFades {
+
+	// how long a light takes to fade fully on or off
+	public static final int FADE_MILLIS = 150;
+
+	/**
+	 * Makes room for a board's lights and stops any fades, only allocating when
+	 * the number of lights changes.
+	 */
+	public void resize( int lights ) {
+		if ( slots == null || slots.length != lights ) {
+			slots = new int[lights];
+			cells = new int[lights];
+			starts = new int[lights];
+			count = 0;
+			Arrays.fill(slots, -1);
+		}
+		else
+			clear();
+	}
+
+	/**
+	 * Stops every fade, the lights are drawn as they are.
+	 */
+	public void clear() {
+		for ( int i = 0; i < count; i++ )
+			slots[cells[i]] = -1;
+		count = 0;
+	}
+
+	/**
+	 * Starts a light fading to its new state. A light still fading the other way
+	 * goes back from where it has got to.
+	 */
+	public void start( int cell, int now ) {
+		int slot = slots[cell];
+		if ( slot == -1 ) {
+			slot = count++;
+			slots[cell] = slot;
+			cells[slot] = cell;
+			starts[slot] = now;
+		}
+		else {
+			int elapsed = Math.min(now - starts[slot], FADE_MILLIS);
+			starts[slot] = now - (FADE_MILLIS - elapsed);
+		}
+	}
+
+	/**
+	 * @return The number of lights fading, they are at 0 to count-1.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public int getCell( int i ) {
+		return cells[i];
+	}
+
+	/**
+	 * @return How far the i-th light is to its new state, from 0 to 255.
+	 */
+	public int getProgress( int i, int now ) {
+		int elapsed = now - starts[i];
+		if ( elapsed >= FADE_MILLIS )
+			return 255;
+		return elapsed <= 0 ? 0 : elapsed*255 / FADE_MILLIS;
+	}
+
+	/**
+	 * Drops the lights that have finished fading, moving the last fading light
+	 * into each one's place.
+	 */
+	public void removeFinished( int now ) {
+		int i = 0;
+		while ( i < count ) {
+			if ( now - starts[i] >= FADE_MILLIS ) {
+				slots[cells[i]] = -1;
+				count--;
+				if ( i < count ) {
+					cells[i] = cells[count];
+					starts[i] = starts[count];
+					slots[cells[i]] = i;
+				}
+			}
+			else
+				i++;
+		}
+	}
+
+	private int[] slots; // place of each light in cells and starts, -1 if not fading
+	private int[] cells;
+	private int[] starts;
+	private int count;
+}
@@ -0,0 +1,388 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class solves a board by treating it as a system of linear equations over
+ * GF(2). Pressing light j switches light i when j is light i or one of its
+ * neighbors, so for a board b we need the presses x with A*x = b where A is the
+ * press-to-light matrix.
+ *
+ * The matrix is reduced once for each board size with bit packed Gauss-Jordan
+ * elimination. After that a board is solved by multiplying it with the reduced
+ * inverse, and the solution is made as short as possible by trying it against
+ * every combination of the quiet patterns (presses that leave the board unchanged).
+ * The combinations are visited in Gray code order so each step only adds or
+ * removes one quiet pattern, and large searches are split across the cores.
+ *
+ * Boards and solutions are vectors with light (row, col) as bit row*cols+col.
+ *
+ * Solvers.getSolver() only uses elimination for boards of up to 25 lights, where
+ * the elimination takes microseconds, so the reduced tables are kept in memory
+ * and never written out.
+ *
+ * @author cory
+ *
+ */
+public class LightsSolver implements BoardSolver {
+
+	// largest number of quiet patterns that will be searched for a shorter solution
+	public static final int MAX_SEARCH_NULLITY = 20;
+	
+	// searches with at least this many quiet patterns are split across threads
+	static final int PARALLEL_SEARCH_NULLITY = 12;
+	static final int SEARCH_TASKS_PER_THREAD = 4;
+
+	public LightsSolver( int rows, int cols ) {
+		this.rows = rows;
+		this.cols = cols;
+		lights = rows*cols;
+		words = (lights + 63) >>> 6;
+
+		// build the press-to-light matrix next to an identity matrix
+		long[] matrix = new long[lights*words];
+		long[] transform = new long[lights*words];
+		for ( int row = 0; row < rows; row++ )
+			for ( int col = 0; col < cols; col++ ) {
+				int i = row*cols + col;
+				setBit(matrix, i, i);
+				if ( col-1 >= 0 )
+					setBit(matrix, i, i-1);
+				if ( col+1 < cols )
+					setBit(matrix, i, i+1);
+				if ( row-1 >= 0 )
+					setBit(matrix, i, i-cols);
+				if ( row+1 < rows )
+					setBit(matrix, i, i+cols);
+				setBit(transform, i, i);
+			}
+
+		// reduce the matrix, every row operation is repeated on the identity so
+		// that its rows end up holding how each reduced row is made from the board
+		int[] pivotColumns = new int[lights];
+		int rank = 0;
+		for ( int col = 0; col < lights; col++ ) {
+			int word = col >>> 6;
+			long mask = 1L << col;
+
+			int pivot = -1;
+			for ( int r = rank; r < lights; r++ )
+				if ( (matrix[r*words + word] & mask) != 0 ) {
+					pivot = r;
+					break;
+				}
+			if ( pivot == -1 )
+				continue; // free column
+
+			swapRows(matrix, pivot, rank);
+			swapRows(transform, pivot, rank);
+
+			for ( int r = 0; r < lights; r++ )
+				if ( r != rank && (matrix[r*words + word] & mask) != 0 ) {
+					xorRow(matrix, r, matrix, rank);
+					xorRow(transform, r, transform, rank);
+				}
+
+			pivotColumns[rank++] = col;
+		}
+		this.rank = rank;
+
+		nullity = lights - rank;
+		checksOffset = lights*words;
+		quietOffset = checksOffset + nullity*words;
+		long[] tables = new long[quietOffset + nullity*words];
+
+		// pressing light pivotColumns[i] is decided by reduced row i, lights on
+		// free columns are never pressed
+		for ( int i = 0; i < rank; i++ )
+			System.arraycopy(transform, i*words, tables, pivotColumns[i]*words, words);
+
+		// the remaining rows of the transform must be even against a solvable board
+		System.arraycopy(transform, rank*words, tables, checksOffset, nullity*words);
+
+		// one quiet pattern for every free column
+		int q = quietOffset / words;
+		int p = 0;
+		for ( int col = 0; col < lights; col++ ) {
+			if ( p < rank && pivotColumns[p] == col ) {
+				p++;
+				continue;
+			}
+			setBit(tables, q, col);
+			for ( int i = 0; i < rank; i++ )
+				if ( (matrix[i*words + (col >>> 6)] & (1L << col)) != 0 )
+					setBit(tables, q, pivotColumns[i]);
+			q++;
+		}
+		this.tables = tables;
+
+		solution = new long[words];
+		candidate = new long[words];
+		best = new long[words];
+		board = new long[words];
+	}
+
+	/**
+	 * Returns a solver for the given board size, reducing its matrix the first
+	 * time the size is asked for.
+	 */
+	public static synchronized LightsSolver getSolver( int rows, int cols ) {
+		Integer key = Integer.valueOf(rows << 16 | cols);
+		LightsSolver solver = solvers.get(key);
+		if ( solver == null ) {
+			solver = new LightsSolver(rows, cols);
+			solvers.put(key, solver);
+		}
+		return solver;
+	}
+
+	/**
+	 * Finds the shortest set of presses that turns off every light.
+	 *
+	 * @param board The lights that are on.
+	 * @param presses Filled with the lights to press.
+	 * @return false if the board can not be solved.
+	 */
+	public synchronized boolean solve( long[] board, long[] presses ) {
+		// a board can only be solved if it is even against every check row
+		for ( int q = 0; q < nullity; q++ )
+			if ( dot(checksOffset + q*words, board) != 0 )
+				return false;
+
+		for ( int w = 0; w < words; w++ )
+			solution[w] = 0;
+		for ( int i = 0; i < lights; i++ )
+			if ( dot(i*words, board) != 0 )
+				solution[i >>> 6] |= 1L << i;
+
+		// try the solution with every combination of quiet patterns, boards with
+		// too many quiet patterns keep the solution from the elimination
+		System.arraycopy(solution, 0, presses, 0, words);
+		if ( nullity > 0 && nullity <= MAX_SEARCH_NULLITY ) {
+			long result;
+			if ( nullity >= PARALLEL_SEARCH_NULLITY && SEARCH_THREADS > 1 )
+				result = parallelSearch();
+			else
+				result = searchRange(0, 1 << nullity, candidate);
+			
+			int combination = (int) result;
+			for ( int q = 0; q < nullity; q++ )
+				if ( (combination & (1 << q)) != 0 )
+					xorQuietPattern(presses, q);
+		}
+		return true;
+	}
+
+	/**
+	 * Tries the solution with the quiet pattern combinations whose Gray code
+	 * position is in [start, end). Moving to the next position adds or removes
+	 * a single quiet pattern.
+	 *
+	 * @param vector Scratch vector that is not used by any other search.
+	 * @return The best weight in the upper int and its combination in the lower int.
+	 */
+	private long searchRange( int start, int end, long[] vector ) {
+		int combination = start ^ (start >>> 1);
+		System.arraycopy(solution, 0, vector, 0, words);
+		for ( int q = 0; q < nullity; q++ )
+			if ( (combination & (1 << q)) != 0 )
+				xorQuietPattern(vector, q);
+
+		int bestWeight = weight(vector);
+		int bestCombination = combination;
+		for ( int i = start + 1; i < end; i++ ) {
+			// the Gray code of i differs from the one before in its lowest set bit
+			int q = Integer.numberOfTrailingZeros(i);
+			int offset = quietOffset + q*words;
+			int w = 0;
+			for ( int j = 0; j < words; j++ ) {
+				long word = vector[j] ^ tables[offset + j];
+				vector[j] = word;
+				w += Long.bitCount(word);
+			}
+			
+			if ( w < bestWeight ) {
+				bestWeight = w;
+				bestCombination = i ^ (i >>> 1);
+			}
+		}
+		return (long) bestWeight << 32 | (bestCombination & 0xffffffffL);
+	}
+
+	/**
+	 * Splits the Gray code search into equal ranges and runs them on the search
+	 * threads. The calling thread waits for all of them.
+	 */
+	private long parallelSearch() {
+		int combinations = 1 << nullity;
+		int tasks = Math.min(SEARCH_THREADS*SEARCH_TASKS_PER_THREAD, combinations);
+		int step = combinations / tasks;
+
+		ArrayList<Future<Long>> results = new ArrayList<Future<Long>>(tasks);
+		for ( int t = 0; t < tasks; t++ ) {
+			final int start = t*step;
+			final int end = t == tasks-1 ? combinations : start + step;
+			results.add(searchThreads.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return Long.valueOf(searchRange(start, end, new long[words]));
+				}
+			}));
+		}
+
+		long best = Long.MAX_VALUE;
+		try {
+			for ( int t = 0; t < tasks; t++ ) {
+				long result = results.get(t).get().longValue();
+				if ( result >>> 32 < best >>> 32 )
+					best = result;
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			return searchRange(0, combinations, candidate);
+		}
+		catch ( ExecutionException e ) {
+			return searchRange(0, combinations, candidate);
+		}
+		return best;
+	}
+
+	@Override
+	public synchronized boolean solve( LightBoard lights, LightBoard presses ) {
+		lights.getCellVector(board);
+		if ( !solve(board, best) )
+			return false;
+		presses.setCellVector(best);
+		return true;
+	}
+
+	@Override
+	public synchronized int minimumMoves( LightBoard lights ) {
+		lights.getCellVector(board);
+		return minimumMoves(board);
+	}
+
+	/**
+	 * @return The fewest presses needed to solve the board or -1 if it can not be solved.
+	 */
+	public synchronized int minimumMoves( long[] board ) {
+		if ( !solve(board, best) )
+			return -1;
+		return weight(best);
+	}
+
+	private int dot( int offset, long[] vector ) {
+		long parity = 0;
+		for ( int w = 0; w < words; w++ )
+			parity ^= tables[offset + w] & vector[w];
+		return Long.bitCount(parity) & 1;
+	}
+
+	private void xorQuietPattern( long[] vector, int q ) {
+		int offset = quietOffset + q*words;
+		for ( int w = 0; w < words; w++ )
+			vector[w] ^= tables[offset + w];
+	}
+
+	private int weight( long[] vector ) {
+		int count = 0;
+		for ( int w = 0; w < words; w++ )
+			count += Long.bitCount(vector[w]);
+		return count;
+	}
+
+	private void setBit( long[] matrix, int row, int col ) {
+		matrix[row*words + (col >>> 6)] |= 1L << col;
+	}
+
+	private void xorRow( long[] target, int targetRow, long[] source, int sourceRow ) {
+		int t = targetRow*words;
+		int s = sourceRow*words;
+		for ( int w = 0; w < words; w++ )
+			target[t + w] ^= source[s + w];
+	}
+
+	private void swapRows( long[] matrix, int a, int b ) {
+		if ( a == b )
+			return;
+		for ( int w = 0; w < words; w++ ) {
+			long temp = matrix[a*words + w];
+			matrix[a*words + w] = matrix[b*words + w];
+			matrix[b*words + w] = temp;
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getWords() {
+		return words;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	@Override
+	public int getNullity() {
+		return nullity;
+	}
+
+	@Override
+	public boolean isShortest() {
+		return nullity <= MAX_SEARCH_NULLITY;
+	}
+
+	@Override
+	public void getQuietPattern( int q, LightBoard pattern ) {
+		long[] vector = new long[words];
+		System.arraycopy(tables, quietOffset + q*words, vector, 0, words);
+		pattern.setCellVector(vector);
+	}
+
+	private static final HashMap<Integer, LightsSolver> solvers = new HashMap<Integer, LightsSolver>();
+	
+	// shared by every solver for splitting up quiet pattern searches, the chasing
+	// solver's as well
+	static final int SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+	static final ExecutorService searchThreads = Executors.newFixedThreadPool(SEARCH_THREADS,
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "LightsSolver search");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final int rows;
+	private final int cols;
+	private final int lights;
+	private final int words; // longs per board vector
+	private final int rank;
+	private final int nullity;
+
+	// inverse, check and quiet pattern rows stored flat with words longs per row
+	private final long[] tables;
+	private final int checksOffset;
+	private final int quietOffset;
+
+	// scratch vectors used while solving
+	private final long[] solution;
+	private final long[] candidate;
+	private final long[] best;
+	private final long[] board;
+}
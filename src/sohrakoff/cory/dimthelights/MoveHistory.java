@@ -0,0 +1,136 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This class keeps the lights pressed in a game so moves can be undone and
+ * redone. A press switches the same lights on and off again, so undoing a move is
+ * pressing its light once more and only the pressed cells (row*cols+col) are kept,
+ * never copies of the board.
+ *
+ * The cells are in an int ring that doubles as moves are made, up to MAX_MOVES,
+ * after which the oldest moves are forgotten. Moves that were undone stay after
+ * the ones that were made until they are redone or a new move is pressed.
+ *
+ * @author cory
+ *
+ */
+public class MoveHistory {
+
+	// most moves that can be undone, older ones are dropped
+	public static final int MAX_MOVES = 1 << 16;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	public MoveHistory() {
+		cells = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Forgets every move, for a new game.
+	 */
+	public void clear() {
+		first = 0;
+		made = 0;
+		undone = 0;
+	}
+
+	/**
+	 * Adds a pressed light, the moves that were undone can not be redone after it.
+	 */
+	public void add( int cell ) {
+		undone = 0;
+		if ( made == cells.length ) {
+			if ( cells.length < MAX_MOVES )
+				grow();
+			else {
+				// full, the new move takes the place of the oldest one
+				first = (first + 1) & (cells.length - 1);
+				made--;
+			}
+		}
+		cells[(first + made) & (cells.length - 1)] = cell;
+		made++;
+	}
+
+	/**
+	 * Copies the moves into a ring twice the size, starting at the front.
+	 */
+	private void grow() {
+		int[] bigger = new int[cells.length*2];
+		int count = made + undone;
+		for ( int i = 0; i < count; i++ )
+			bigger[i] = cells[(first + i) & (cells.length - 1)];
+		cells = bigger;
+		first = 0;
+	}
+
+	public boolean canUndo() {
+		return made > 0;
+	}
+
+	public boolean canRedo() {
+		return undone > 0;
+	}
+
+	/**
+	 * Takes back the last move made.
+	 *
+	 * @return The cell to press to undo it or -1 if there is none.
+	 */
+	public int undo() {
+		if ( made == 0 )
+			return -1;
+		made--;
+		undone++;
+		return cells[(first + made) & (cells.length - 1)];
+	}
+
+	/**
+	 * Makes the last move undone again.
+	 *
+	 * @return The cell to press to redo it or -1 if there is none.
+	 */
+	public int redo() {
+		if ( undone == 0 )
+			return -1;
+		int cell = cells[(first + made) & (cells.length - 1)];
+		made++;
+		undone--;
+		return cell;
+	}
+
+	/**
+	 * @return The number of moves made, then the cells of the moves made and of
+	 * the moves undone, oldest first, for saving the history.
+	 */
+	public int[] toArray() {
+		int count = made + undone;
+		int[] array = new int[count + 1];
+		array[0] = made;
+		for ( int i = 0; i < count; i++ )
+			array[i + 1] = cells[(first + i) & (cells.length - 1)];
+		return array;
+	}
+
+	/**
+	 * Replaces the history with one saved by toArray().
+	 */
+	public void setArray( int[] array ) {
+		clear();
+		int count = array.length - 1;
+		if ( count < 0 )
+			return;
+		// only the newest moves are kept if the array is longer than the ring
+		int skip = Math.max(0, count - MAX_MOVES);
+		while ( cells.length < count - skip )
+			cells = new int[cells.length*2];
+		for ( int i = skip; i < count; i++ )
+			cells[i - skip] = array[i + 1];
+		made = Math.max(0, Math.min(array[0], count) - skip);
+		undone = count - skip - made;
+	}
+
+	private int[] cells; // length is a power of two
+	private int first; // place of the oldest move in cells
+	private int made; // moves that can be undone
+	private int undone; // moves after them that can be redone
+}
@@ -0,0 +1,328 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.HashSet;
+
+/**
+ * This class makes puzzles by pressing random lights on a dark board, so every
+ * puzzle it makes can be solved. A puzzle made with k presses takes k moves
+ * unless adding a quiet pattern to the presses makes them lighter, which it does
+ * when the presses hold more than half of some combination of quiet patterns.
+ * So lights are pressed in a random order and a light is skipped if pressing it
+ * would go over half of a combination, and the puzzle takes exactly k moves
+ * without solving it. The rare order that runs out of lights is made again.
+ *
+ * Shapes with too many quiet patterns to keep count of, or whose solver can not
+ * give the fewest moves, play the board of all lights when that is the wanted
+ * number of moves, as it always is for a new game.
+ *
+ * Puzzles come from a SplitMix64 random stream and are the same for the same
+ * seed on every device. Numbered puzzles get their seed straight from the
+ * number, so puzzle N is made without making the puzzles before it. A generator
+ * keeps all of its scratch arrays so making a puzzle does not allocate, and each
+ * thread making a puzzle pack uses its own generator.
+ *
+ * @author cory
+ *
+ */
+public class PuzzleGenerator {
+
+	// number of random orders tried before falling back to the board of all lights
+	public static final int MAX_ATTEMPTS = 64;
+
+	// most quiet patterns kept count of, every press checks each combination
+	public static final int MAX_COUNTED_NULLITY = 16;
+
+	// most light-combination checks made for one puzzle, which bounds the attempts
+	private static final long MAX_PUZZLE_WORK = 1L << 26;
+
+	public PuzzleGenerator( int rows, int cols ) {
+		this(rows, cols, Solvers.getSolver(rows, cols));
+	}
+
+	private PuzzleGenerator( int rows, int cols, BoardSolver solver ) {
+		this.rows = rows;
+		this.cols = cols;
+		lights = new LightBoard(rows, cols);
+		bits = new long[lights.getBitsLength()];
+		allLightsMoves = Solvers.allLightsMinimumMoves(rows, cols);
+
+		cells = new int[rows*cols];
+		resetCells();
+
+		int nullity = solver.getNullity();
+		if ( !solver.isShortest() || nullity > MAX_COUNTED_NULLITY ) {
+			cellPatterns = null;
+			halfWeights = null;
+			counts = null;
+			attempts = 0;
+			return;
+		}
+
+		// the quiet patterns each light is in, as bits
+		cellPatterns = new int[rows*cols];
+		LightBoard pattern = new LightBoard(rows, cols);
+		for ( int q = 0; q < nullity; q++ ) {
+			solver.getQuietPattern(q, pattern);
+			for ( int cell = 0; cell < cellPatterns.length; cell++ )
+				if ( pattern.isLit(cell / cols, cell % cols) )
+					cellPatterns[cell] |= 1 << q;
+		}
+
+		// a light is in a combination of quiet patterns when it is in an odd
+		// number of them
+		int combinations = 1 << nullity;
+		halfWeights = new int[combinations];
+		counts = new int[combinations];
+		for ( int cell = 0; cell < cellPatterns.length; cell++ )
+			if ( cellPatterns[cell] != 0 )
+				for ( int c = 1; c < combinations; c++ )
+					if ( (Integer.bitCount(cellPatterns[cell] & c) & 1) != 0 )
+						halfWeights[c]++;
+		for ( int c = 1; c < combinations; c++ )
+			halfWeights[c] /= 2;
+
+		long work = (long) cellPatterns.length*combinations;
+		attempts = (int) Math.max(1, Math.min(MAX_ATTEMPTS, MAX_PUZZLE_WORK / work));
+	}
+
+	/**
+	 * Makes the puzzle for a seed.
+	 *
+	 * @param seed Puzzles made from the same seed are the same.
+	 * @param targetMoves The number of moves the puzzle should take.
+	 * @param puzzle Set to the puzzle, must be the size of the generator.
+	 * @return The fewest moves that solve the puzzle, which is targetMoves unless
+	 * the shape plays the board of all lights and that is not targetMoves.
+	 */
+	public int generate( long seed, int targetMoves, LightBoard puzzle ) {
+		// the shuffle starts from the same cell order so the seed is all that counts
+		state = seed;
+		resetCells();
+		int moves = next(targetMoves);
+		lights.getBits(bits, 0);
+		puzzle.setBits(bits);
+		return moves;
+	}
+
+	/**
+	 * Makes the next puzzle of the random stream into the generator's board.
+	 *
+	 * @return The fewest moves that solve the puzzle.
+	 */
+	private int next( int targetMoves ) {
+		targetMoves = Math.max(0, Math.min(targetMoves, cells.length));
+		for ( int attempt = 0; attempt < attempts; attempt++ )
+			if ( press(targetMoves) )
+				return targetMoves;
+
+		// the board of all lights takes the moves it takes by definition
+		if ( targetMoves == allLightsMoves ) {
+			lights.setAllLights(true);
+			return targetMoves;
+		}
+
+		// without quiet pattern counts the puzzle takes at most this many moves, only
+		// packs aimed elsewhere and sizes whose board of all lights can not be
+		// solved get here
+		pressAny(targetMoves);
+		return targetMoves;
+	}
+
+	/**
+	 * Sets the generator's board to a dark board with presses different lights
+	 * pressed, picked in random order with a partial Fisher-Yates shuffle of the
+	 * cells. Lights that would put the presses over half of a combination of
+	 * quiet patterns are skipped, so the presses are the shortest solution.
+	 *
+	 * @return false if the lights ran out first.
+	 */
+	private boolean press( int presses ) {
+		lights.setAllLights(false);
+		for ( int c = 0; c < counts.length; c++ )
+			counts[c] = 0;
+
+		int pressed = 0;
+		for ( int i = 0; i < cells.length && pressed < presses; i++ ) {
+			int j = i + (int) ((nextLong() >>> 33) % (cells.length - i));
+			int cell = cells[j];
+			cells[j] = cells[i];
+			cells[i] = cell;
+
+			int patterns = cellPatterns[cell];
+			if ( patterns != 0 ) {
+				if ( !fits(patterns) )
+					continue;
+				for ( int c = 1; c < counts.length; c++ )
+					if ( (Integer.bitCount(patterns & c) & 1) != 0 )
+						counts[c]++;
+			}
+			lights.flip(cell / cols, cell % cols);
+			pressed++;
+		}
+		return pressed == presses;
+	}
+
+	/**
+	 * @return true if a light in the given quiet patterns can be pressed without
+	 * going over half of any combination.
+	 */
+	private boolean fits( int patterns ) {
+		for ( int c = 1; c < counts.length; c++ )
+			if ( (Integer.bitCount(patterns & c) & 1) != 0 && counts[c] == halfWeights[c] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Sets the generator's board to a dark board with presses different lights
+	 * pressed, with nothing skipped.
+	 */
+	private void pressAny( int presses ) {
+		lights.setAllLights(false);
+		for ( int i = 0; i < presses; i++ ) {
+			int j = i + (int) ((nextLong() >>> 33) % (cells.length - i));
+			int cell = cells[j];
+			cells[j] = cells[i];
+			cells[i] = cell;
+			lights.flip(cell / cols, cell % cols);
+		}
+	}
+
+	private void resetCells() {
+		for ( int i = 0; i < cells.length; i++ )
+			cells[i] = i;
+	}
+
+	/**
+	 * @return The seed of numbered puzzle N, the same on every device.
+	 */
+	public static long puzzleSeed( long number ) {
+		return mix(SERIES_SEED + number*GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return The number of the puzzle of the day, the days since 1 Jan 1970 UTC
+	 * so every device plays the same puzzle on the same day.
+	 */
+	public static long dailyPuzzleNumber( long timeMillis ) {
+		long day = timeMillis / MILLIS_PER_DAY;
+		if ( timeMillis < 0 && day*MILLIS_PER_DAY != timeMillis )
+			day--;
+		return day;
+	}
+
+	/**
+	 * Makes the numbered puzzles first to first+count-1 on several threads at
+	 * once. Every puzzle only depends on its number, so the pack is the same for
+	 * any thread count and matches the puzzles played one at a time.
+	 *
+	 * @param pack Filled with count puzzles of LightBoard.getBits() words each.
+	 * @param moves Filled with the fewest moves of each puzzle, may be null.
+	 * @param threads The number of threads to make the puzzles on.
+	 */
+	public static void generateRange( final int rows, final int cols, final long first, final int count,
+			final int targetMoves, final long[] pack, final int[] moves, int threads ) {
+		final int words = new LightBoard(rows, cols).getBitsLength();
+		threads = Math.max(1, Math.min(threads, count));
+
+		Thread[] workers = new Thread[threads];
+		for ( int t = 0; t < threads; t++ ) {
+			final int start = (int) ((long) count*t / threads);
+			final int end = (int) ((long) count*(t+1) / threads);
+			workers[t] = new Thread("PuzzleGenerator range") {
+				@Override
+				public void run() {
+					// every thread has its own solver so none wait on each other
+					PuzzleGenerator generator = new PuzzleGenerator(rows, cols, Solvers.newSolver(rows, cols));
+					for ( int i = start; i < end; i++ ) {
+						generator.state = puzzleSeed(first + i);
+						generator.resetCells();
+						int m = generator.next(targetMoves);
+						generator.lights.getBits(pack, i*words);
+						if ( moves != null )
+							moves[i] = m;
+					}
+				}
+			};
+			workers[t].start();
+		}
+
+		for ( int t = 0; t < threads; t++ ) {
+			try {
+				workers[t].join();
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the puzzles of a square pack that are a turned or mirrored copy of
+	 * an earlier puzzle, keeping the order of the rest.
+	 *
+	 * @param pack count puzzles of a size up to BoardSymmetry.MAX_SIZE.
+	 * @return The number of puzzles left at the start of the pack.
+	 */
+	public static int removeSymmetricDuplicates( int size, long[] pack, int count ) {
+		BoardSymmetry symmetry = BoardSymmetry.getSymmetry(size);
+		HashSet<Long> seen = new HashSet<Long>();
+		int kept = 0;
+		for ( int i = 0; i < count; i++ )
+			if ( seen.add(Long.valueOf(symmetry.canonical(pack[i]))) )
+				pack[kept++] = pack[i];
+		return kept;
+	}
+
+	/**
+	 * @return The next number of the SplitMix64 random stream.
+	 */
+	private long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	/**
+	 * SplitMix64 output function, scrambles a number so that numbers close
+	 * together give unrelated results.
+	 */
+	static long mix( long z ) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	// SplitMix64 step between random numbers
+	static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	// start of the numbered puzzle series, changing it changes every numbered puzzle
+	private static final long SERIES_SEED = 0x44544c5044415931L;
+
+	private static final long MILLIS_PER_DAY = 24L*60*60*1000;
+
+	private final int rows;
+	private final int cols;
+	private final int allLightsMoves;
+	private long state; // random stream position
+
+	// scratch board and its bits, and the cells to pick presses from
+	private final LightBoard lights;
+	private final long[] bits;
+	private final int[] cells;
+
+	// null when the quiet patterns are not counted: the quiet patterns of each
+	// cell as bits, half the weight of each combination and the presses in it
+	private final int[] cellPatterns;
+	private final int[] halfWeights;
+	private final int[] counts;
+	private final int attempts;
+}
@@ -0,0 +1,177 @@
+package sohrakoff.cory.dimthelights;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+
+/**
+ * This class writes the high scores behind the game's back. Each level's
+ * leaderboard is a file and the scores saved before there were leaderboards are
+ * in the preferences, writing either one goes to disk, so the UI thread only
+ * hands the bytes over and a writer thread writes them. The game keeps the scores
+ * in memory and reads them from there, so it sees its own changes straight away.
+ *
+ * Every save holds a whole file, so saves of a file made while the writer is busy
+ * replace each other and only the latest one is written.
+ *
+ * @author cory
+ *
+ */
+public class ScoreWriter implements Runnable {
+
+	/**
+	 * @return The writer, one for the whole process so an older save can never be
+	 * written after a newer one.
+	 */
+	public static synchronized ScoreWriter getWriter( SharedPreferences preferences ) {
+		if ( writer == null )
+			writer = new ScoreWriter(preferences);
+		return writer;
+	}
+
+	private ScoreWriter( SharedPreferences preferences ) {
+		this.preferences = preferences;
+	}
+
+	/**
+	 * Has a file written, replacing any save of it not written yet.
+	 *
+	 * @param data The whole file, owned by the writer from now on, or null to
+	 * delete the file.
+	 */
+	public void save( File file, byte[] data ) {
+		synchronized ( lock ) {
+			pendingFiles.put(file, data);
+			start();
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Has the preferences cleared.
+	 */
+	public void clearPreferences() {
+		synchronized ( lock ) {
+			pendingClear = true;
+			start();
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the latest save has been committed, for when the process may
+	 * be stopped.
+	 */
+	public void flush() {
+		synchronized ( lock ) {
+			while ( pendingClear || !pendingFiles.isEmpty() || writing ) {
+				try {
+					lock.wait();
+				}
+				catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void start() {
+		if ( thread == null ) {
+			thread = new Thread(this, "ScoreWriter");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public void run() {
+		while ( true ) {
+			boolean clear;
+			synchronized ( lock ) {
+				while ( !pendingClear && pendingFiles.isEmpty() ) {
+					try {
+						lock.wait();
+					}
+					catch ( InterruptedException e ) {
+						return;
+					}
+				}
+				clear = pendingClear;
+				pendingClear = false;
+
+				// written from one map while more saves go in the other
+				HashMap<File, byte[]> swap = writingFiles;
+				writingFiles = pendingFiles;
+				pendingFiles = swap;
+				writing = true;
+			}
+
+			if ( clear ) {
+				SharedPreferences.Editor editor = preferences.edit();
+				editor.clear();
+				editor.commit();
+			}
+			for ( Map.Entry<File, byte[]> file : writingFiles.entrySet() ) {
+				try {
+					write(file.getKey(), file.getValue());
+				}
+				catch ( IOException e ) {
+					; // the scores are still in memory, the next save tries again
+				}
+			}
+			writingFiles.clear();
+
+			synchronized ( lock ) {
+				writing = false;
+				lock.notifyAll(); // wakes flush()
+			}
+		}
+	}
+
+	/**
+	 * Writes a file next to its final name and renames it, so a partly written
+	 * file is never read.
+	 */
+	private static void write( File file, byte[] data ) throws IOException {
+		if ( data == null ) {
+			file.delete();
+			return;
+		}
+
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			while ( buffer.hasRemaining() )
+				channel.write(buffer);
+			channel.force(true);
+		}
+		finally {
+			out.close();
+		}
+		if ( !temp.renameTo(file) ) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp);
+		}
+	}
+
+	private static ScoreWriter writer;
+
+	private final SharedPreferences preferences;
+	private final Object lock = new Object();
+	private boolean pendingClear;
+	private HashMap<File, byte[]> pendingFiles = new HashMap<File, byte[]>();
+	private HashMap<File, byte[]> writingFiles = new HashMap<File, byte[]>();
+	private boolean writing;
+	private Thread thread;
+}
@@ -0,0 +1,139 @@
+package sohrakoff.cory.dimthelights;
+
+/**
+ * This class is a fixed size map from packed boards to packed solutions with no
+ * boxing or allocation after it is made.
+ *
+ * Keys are kept in open addressed slots and a key can only live in the
+ * PROBE_SLOTS slots after its hash. Slots are filled in order and never emptied,
+ * so a lookup stops at the first empty slot. When all of a key's slots are full
+ * one of them is evicted with the CLOCK rule: a slot that was used since the hand
+ * last passed gets a second chance, the first one that was not is replaced.
+ *
+ * All methods are synchronized so a background solver can read while the UI
+ * thread writes.
+ *
+ * @author cory
+ *
+ */
+public class SolutionCache {
+
+	// number of slots a key may be put in
+	public static final int PROBE_SLOTS = 8;
+
+	/**
+	 * @param capacity The number of entries, rounded up to a power of two.
+	 */
+	public SolutionCache( int capacity ) {
+		int slots = PROBE_SLOTS;
+		while ( slots < capacity )
+			slots <<= 1;
+
+		mask = slots - 1;
+		keys = new long[slots];
+		values = new long[slots];
+		states = new byte[slots];
+	}
+
+	/**
+	 * Looks up the value for a key.
+	 *
+	 * @param value value[0] is set to the value if the key is found.
+	 * @return false if the key is not in the cache.
+	 */
+	public synchronized boolean get( long key, long[] value ) {
+		int slot = (int) PuzzleGenerator.mix(key) & mask;
+		for ( int i = 0; i < PROBE_SLOTS; i++, slot = (slot + 1) & mask ) {
+			if ( states[slot] == EMPTY )
+				break;
+			if ( keys[slot] == key ) {
+				states[slot] = REFERENCED;
+				value[0] = values[slot];
+				hits++;
+				return true;
+			}
+		}
+		misses++;
+		return false;
+	}
+
+	/**
+	 * Adds or replaces the value for a key, evicting an entry if there is no room.
+	 */
+	public synchronized void put( long key, long value ) {
+		int start = (int) PuzzleGenerator.mix(key) & mask;
+		int slot = start;
+		for ( int i = 0; i < PROBE_SLOTS; i++, slot = (slot + 1) & mask ) {
+			if ( states[slot] == EMPTY || keys[slot] == key ) {
+				if ( states[slot] == EMPTY )
+					size++;
+				set(slot, key, value);
+				return;
+			}
+		}
+
+		// CLOCK over the key's slots, the hand keeps turning so a full cycle
+		// clears every second chance and always finds a slot
+		while ( true ) {
+			slot = (start + hand) & mask;
+			hand = (hand + 1) % PROBE_SLOTS;
+			if ( states[slot] == REFERENCED )
+				states[slot] = USED;
+			else
+				break;
+		}
+		evictions++;
+		set(slot, key, value);
+	}
+
+	private void set( int slot, long key, long value ) {
+		keys[slot] = key;
+		values[slot] = value;
+		states[slot] = REFERENCED;
+	}
+
+	/**
+	 * Removes every entry, the counters are kept.
+	 */
+	public synchronized void clear() {
+		for ( int i = 0; i < states.length; i++ )
+			states[i] = EMPTY;
+		size = 0;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// slot states, a referenced slot has been used since the clock hand passed it
+	private static final byte EMPTY = 0;
+	private static final byte USED = 1;
+	private static final byte REFERENCED = 2;
+
+	private final int mask;
+	private final long[] keys;
+	private final long[] values;
+	private final byte[] states;
+	private int size;
+	private int hand; // clock position within a key's slots
+
+	private long hits;
+	private long misses;
+	private long evictions;
+}
@@ -0,0 +1,84 @@
+package sohrakoff.cory.dimthelights;
+
+import java.util.HashMap;
+
+/**
+ * This class picks the solver to use for a board shape.
+ *
+ * Elimination solves a board with a rows*cols by rows*cols matrix multiply, light
+ * chasing with a few passes over the rows. Measured on a desktop JVM the two are
+ * even up to 5x5, chasing is about twice as fast at 6x6 and over ten times faster
+ * from 10x10, and elimination also needs its matrix in memory. So only boards
+ * small enough that the matrix costs nothing use elimination.
+ *
+ * @author cory
+ *
+ */
+public final class Solvers {
+
+	// boards with more lights than this are solved by light chasing
+	public static final int MAX_ELIMINATION_LIGHTS = 25;
+
+	// boards with up to this many lights fit in one long and are cached
+	public static final int MAX_CACHED_LIGHTS = 64;
+
+	private Solvers() {
+	}
+
+	/**
+	 * Returns the shared solver for a board shape. Boards that pack into a single
+	 * long have their solutions cached, the same positions are solved again and
+	 * again for hints, scores and new puzzles.
+	 */
+	public static synchronized BoardSolver getSolver( int rows, int cols ) {
+		Integer key = Integer.valueOf(rows << 16 | cols);
+		BoardSolver solver = solvers.get(key);
+		if ( solver == null ) {
+			if ( rows*cols <= MAX_ELIMINATION_LIGHTS )
+				solver = LightsSolver.getSolver(rows, cols);
+			else
+				solver = ChasingSolver.getSolver(rows, cols);
+			if ( rows*cols <= MAX_CACHED_LIGHTS )
+				solver = new CachedSolver(solver, rows, cols);
+			solvers.put(key, solver);
+		}
+		return solver;
+	}
+
+	/**
+	 * Creates a solver for the board shape that is not shared, for threads that
+	 * solve many boards at once and should not wait on each other.
+	 */
+	public static BoardSolver newSolver( int rows, int cols ) {
+		if ( rows*cols <= MAX_ELIMINATION_LIGHTS )
+			return new LightsSolver(rows, cols);
+		else
+			return new ChasingSolver(rows, cols);
+	}
+
+	/**
+	 * @return The fewest presses needed to turn off a board that starts with every
+	 * light on, or -1 if it can not be solved.
+	 */
+	public static int allLightsMinimumMoves( int rows, int cols ) {
+		// asked for on every new game and for every level's high scores, and big
+		// boards are not in the solution cache
+		Integer key = Integer.valueOf(rows << 16 | cols);
+		synchronized ( allLightsMoves ) {
+			Integer moves = allLightsMoves.get(key);
+			if ( moves != null )
+				return moves.intValue();
+		}
+
+		LightBoard lights = new LightBoard(rows, cols);
+		lights.setAllLights(true);
+		int moves = getSolver(rows, cols).minimumMoves(lights);
+		synchronized ( allLightsMoves ) {
+			allLightsMoves.put(key, Integer.valueOf(moves));
+		}
+		return moves;
+	}
+
+	private static final HashMap<Integer, BoardSolver> solvers = new HashMap<Integer, BoardSolver>();
+	private static final HashMap<Integer, Integer> allLightsMoves = new HashMap<Integer, Integer>();
+}